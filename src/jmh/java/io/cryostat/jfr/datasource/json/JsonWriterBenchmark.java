@@ -0,0 +1,135 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.json;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes the datapoints of a timeseries panel, and the strings of a table panel, as {@link
+ * JsonWriter} does for query responses. The datapoints are also written through {@link
+ * Double#toString(double)} and {@link Long#toString(long)}, as values outside of the plain range
+ * are, for comparison.
+ *
+ * <p>Run with {@code mvn -Pbenchmarks test}, optionally choosing benchmarks with {@code
+ * -Djmh.benchmarks=<regex>}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonWriterBenchmark {
+
+    private static final int ROWS = 4096;
+
+    private final double[] values = new double[ROWS];
+    private final long[] timestamps = new long[ROWS];
+    private final String[] strings = new String[ROWS];
+    private JsonWriter writer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        for (int row = 0; row < ROWS; row++) {
+            // Durations in milliseconds and sizes in bytes, as converted from recorded quantities
+            values[row] =
+                    row % 2 == 0
+                            ? (1 + random.nextInt(1_000_000)) / 100.0
+                            : (1 + random.nextInt(4096)) * 8.0;
+            timestamps[row] = 1663785541194L + row * 17L;
+            strings[row] =
+                    row % 8 == 0
+                            ? "\"Thread-" + row + "\"\tRUNNABLE\n"
+                            : "java.util.concurrent.ConcurrentHashMap$Node[" + row + "]";
+        }
+        writer = new JsonWriter(64 * 1024);
+    }
+
+    @Benchmark
+    public int writeDatapoints() {
+        writer.beginArray();
+        for (int row = 0; row < ROWS; row++) {
+            writer.beginArray().value(values[row]).value(timestamps[row]).endArray();
+        }
+        writer.endArray();
+        return release();
+    }
+
+    @Benchmark
+    public int writeDatapointsToString() {
+        writer.beginArray();
+        for (int row = 0; row < ROWS; row++) {
+            writer.beginArray()
+                    .rawValue(Double.toString(values[row]))
+                    .rawValue(Long.toString(timestamps[row]))
+                    .endArray();
+        }
+        writer.endArray();
+        return release();
+    }
+
+    @Benchmark
+    public int writeStrings() {
+        writer.beginArray();
+        for (int row = 0; row < ROWS; row++) {
+            writer.value(strings[row]);
+        }
+        writer.endArray();
+        return release();
+    }
+
+    /** Gives the buffer back to the pool, as a response does once a chunk is copied out. */
+    private int release() {
+        int size = writer.size();
+        writer.release();
+        return size;
+    }
+}
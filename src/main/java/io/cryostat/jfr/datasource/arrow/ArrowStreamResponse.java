@@ -0,0 +1,109 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.arrow;
+
+import java.util.concurrent.Executor;
+
+import io.cryostat.jfr.datasource.utils.ChunkedResponse;
+import io.cryostat.jfr.datasource.utils.ResponseCompression;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.ext.web.RoutingContext;
+
+/** Sends the record batches of an {@link ArrowProducer} in the Arrow IPC streaming format. */
+public class ArrowStreamResponse extends ChunkedResponse {
+
+    public static final String MEDIA_TYPE = "application/vnd.apache.arrow.stream";
+
+    private final ArrowProducer producer;
+    private final ArrowStreamWriter writer;
+    private boolean started;
+
+    private ArrowStreamResponse(
+            RoutingContext context,
+            ResponseCompression compression,
+            Executor executor,
+            ArrowProducer producer) {
+        super(context, compression, executor);
+        this.producer = producer;
+        // Leaves room for the batch which takes the buffer over the chunk size
+        this.writer = new ArrowStreamWriter(producer.getVectors(), 2 * CHUNK_SIZE);
+    }
+
+    /** @param executor produces the response, starting with the calling thread */
+    public static void send(
+            RoutingContext context,
+            ResponseCompression compression,
+            Executor executor,
+            ArrowProducer producer) {
+        context.response().putHeader("content-type", MEDIA_TYPE);
+        new ArrowStreamResponse(context, compression, executor, producer).resume();
+    }
+
+    @Override
+    protected boolean produce() {
+        if (!started) {
+            writer.writeSchema();
+            started = true;
+            return true;
+        }
+        boolean more = producer.produce();
+        if (!producer.getVectors().isEmpty() && producer.getVectors().get(0).getRowCount() > 0) {
+            writer.writeBatch();
+        }
+        if (!more) {
+            writer.writeEnd();
+        }
+        return more;
+    }
+
+    @Override
+    protected int size() {
+        return writer.size();
+    }
+
+    @Override
+    protected ByteBuf take() {
+        return writer.take();
+    }
+
+    @Override
+    protected void release() {
+        writer.release();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.arrow;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Encodes vectors as messages of the Arrow IPC streaming format: the schema, then one record batch
+ * per {@link #writeBatch()}, then the end of stream marker. Messages are appended to a pooled
+ * {@link ByteBuf} which is only held until the output is taken.
+ *
+ * @see <a href="https://arrow.apache.org/docs/format/Columnar.html#ipc-streaming-format">IPC
+ *     Streaming Format</a>
+ */
+final class ArrowStreamWriter {
+
+    private static final int CONTINUATION = 0xFFFFFFFF;
+    // Buffers and messages are padded to this many bytes
+    private static final int ALIGNMENT = 8;
+
+    // Values of the MetadataVersion enum and of the MessageHeader union of the Arrow schema
+    private static final int METADATA_V5 = 4;
+    private static final int HEADER_SCHEMA = 1;
+    private static final int HEADER_RECORD_BATCH = 3;
+
+    private final List<ArrowVector> vectors;
+    private final ByteBufAllocator allocator;
+    private final int capacity;
+    private ByteBuf buffer;
+
+    ArrowStreamWriter(List<ArrowVector> vectors, int capacity) {
+        this(vectors, PooledByteBufAllocator.DEFAULT, capacity);
+    }
+
+    ArrowStreamWriter(List<ArrowVector> vectors, ByteBufAllocator allocator, int capacity) {
+        this.vectors = vectors;
+        this.allocator = allocator;
+        this.capacity = capacity;
+    }
+
+    void writeSchema() {
+        FlatBufferBuilder builder = new FlatBufferBuilder();
+        int[] fields = new int[vectors.size()];
+        for (int i = 0; i < fields.length; i++) {
+            ArrowVector vector = vectors.get(i);
+            int name = builder.createString(vector.getName());
+            int type = vector.writeType(builder);
+            builder.startVector(Integer.BYTES, 0, Integer.BYTES);
+            int children = builder.endVector();
+            // Field: name, nullable, type_type, type, dictionary, children
+            builder.startTable(6);
+            builder.addOffset(0, name);
+            builder.addOffset(3, type);
+            builder.addOffset(5, children);
+            builder.addByte(1, 1);
+            builder.addByte(2, vector.getTypeId());
+            fields[i] = builder.endTable();
+        }
+        builder.startVector(Integer.BYTES, fields.length, Integer.BYTES);
+        for (int i = fields.length - 1; i >= 0; i--) {
+            builder.addOffset(fields[i]);
+        }
+        int fieldVector = builder.endVector();
+        // Schema: endianness, fields
+        builder.startTable(2);
+        builder.addOffset(1, fieldVector);
+        builder.addShort(0, 0);
+        int schema = builder.endTable();
+        writeMessage(builder, HEADER_SCHEMA, schema, 0);
+    }
+
+    /** Writes the rows of the vectors as a record batch, and clears the vectors. */
+    void writeBatch() {
+        int rowCount = vectors.isEmpty() ? 0 : vectors.get(0).getRowCount();
+        FlatBufferBuilder builder = new FlatBufferBuilder();
+
+        // Buffer: offset, length, relative to the start of the message body
+        int bufferCount = 0;
+        for (ArrowVector vector : vectors) {
+            bufferCount += 1 + vector.getValueBufferCount();
+        }
+        long[] bufferLengths = new long[bufferCount];
+        int index = 0;
+        for (ArrowVector vector : vectors) {
+            bufferLengths[index++] = vector.getValidityLength();
+            for (int i = 0; i < vector.getValueBufferCount(); i++) {
+                bufferLengths[index++] = vector.getValueBufferLength(i);
+            }
+        }
+        long[] bufferOffsets = new long[bufferCount];
+        long bodyLength = 0;
+        for (int i = 0; i < bufferCount; i++) {
+            bufferOffsets[i] = bodyLength;
+            bodyLength += align(bufferLengths[i]);
+        }
+        builder.startVector(2 * Long.BYTES, bufferCount, Long.BYTES);
+        for (int i = bufferCount - 1; i >= 0; i--) {
+            builder.prep(Long.BYTES, 2 * Long.BYTES);
+            builder.putLong(bufferLengths[i]);
+            builder.putLong(bufferOffsets[i]);
+        }
+        int buffers = builder.endVector();
+
+        // FieldNode: length, null_count
+        builder.startVector(2 * Long.BYTES, vectors.size(), Long.BYTES);
+        for (int i = vectors.size() - 1; i >= 0; i--) {
+            builder.prep(Long.BYTES, 2 * Long.BYTES);
+            builder.putLong(vectors.get(i).getNullCount());
+            builder.putLong(vectors.get(i).getRowCount());
+        }
+        int nodes = builder.endVector();
+
+        // RecordBatch: length, nodes, buffers
+        builder.startTable(3);
+        builder.addLong(0, rowCount);
+        builder.addOffset(1, nodes);
+        builder.addOffset(2, buffers);
+        int recordBatch = builder.endTable();
+        writeMessage(builder, HEADER_RECORD_BATCH, recordBatch, bodyLength);
+
+        ByteBuf out = buffer();
+        index = 0;
+        for (ArrowVector vector : vectors) {
+            vector.writeValidity(out);
+            pad(out, bufferLengths[index++]);
+            for (int i = 0; i < vector.getValueBufferCount(); i++) {
+                vector.writeValueBuffer(i, out);
+                pad(out, bufferLengths[index++]);
+            }
+            vector.clear();
+        }
+    }
+
+    void writeEnd() {
+        buffer().writeIntLE(CONTINUATION).writeIntLE(0);
+    }
+
+    int size() {
+        return buffer == null ? 0 : buffer.readableBytes();
+    }
+
+    /** Hands over the pooled buffer holding the bytes written so far, for the caller to release. */
+    ByteBuf take() {
+        if (buffer == null) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+        ByteBuf taken = buffer;
+        buffer = null;
+        return taken;
+    }
+
+    void release() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
+    private ByteBuf buffer() {
+        if (buffer == null) {
+            buffer = allocator.heapBuffer(capacity);
+        }
+        return buffer;
+    }
+
+    /** Writes an encapsulated message, whose body is then written by the caller. */
+    private void writeMessage(
+            FlatBufferBuilder builder, int headerType, int header, long bodyLength) {
+        // Message: version, header_type, header, bodyLength
+        builder.startTable(4);
+        builder.addLong(3, bodyLength);
+        builder.addOffset(2, header);
+        builder.addShort(0, METADATA_V5);
+        builder.addByte(1, headerType);
+        byte[] metadata = builder.finish(builder.endTable());
+
+        ByteBuf out = buffer();
+        // The length includes the padding which aligns the body
+        int length = (int) align(2 * Integer.BYTES + metadata.length) - 2 * Integer.BYTES;
+        out.writeIntLE(CONTINUATION);
+        out.writeIntLE(length);
+        out.writeBytes(metadata);
+        out.writeZero(length - metadata.length);
+    }
+
+    private static long align(long length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static void pad(ByteBuf out, long length) {
+        out.writeZero((int) (align(length) - length));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.arrow;
+
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The values of one field of an Arrow record batch. Values are added row by row, and are cleared
+ * once the batch is written, so a vector only ever holds one batch.
+ */
+public abstract class ArrowVector {
+
+    private final String name;
+    // One bit per row, set if the row has a value
+    private byte[] validity = new byte[128];
+    private int rowCount;
+    private int nullCount;
+
+    protected ArrowVector(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void addNull() {
+        nextRow(false);
+        nullCount++;
+    }
+
+    /** Marks the next row as present or missing, and returns its index within the batch. */
+    int nextRow(boolean valid) {
+        int row = rowCount++;
+        if ((row >> 3) == validity.length) {
+            validity = Arrays.copyOf(validity, validity.length * 2);
+        }
+        if (valid) {
+            validity[row >> 3] |= (byte) (1 << (row & 7));
+        } else {
+            validity[row >> 3] &= (byte) ~(1 << (row & 7));
+        }
+        return row;
+    }
+
+    int getNullCount() {
+        return nullCount;
+    }
+
+    /** Identifier of the type in the {@code Type} union of the Arrow schema. */
+    abstract int getTypeId();
+
+    /** Writes the {@code Type} table of the field and returns its offset. */
+    abstract int writeType(FlatBufferBuilder builder);
+
+    /** Number of buffers of the batch which follow the validity bitmap. */
+    abstract int getValueBufferCount();
+
+    abstract int getValueBufferLength(int index);
+
+    /** Writes a buffer which follows the validity bitmap, in little-endian byte order. */
+    abstract void writeValueBuffer(int index, ByteBuf out);
+
+    int getValidityLength() {
+        return (rowCount + 7) >> 3;
+    }
+
+    void writeValidity(ByteBuf out) {
+        out.writeBytes(validity, 0, getValidityLength());
+    }
+
+    void clear() {
+        Arrays.fill(validity, 0, getValidityLength(), (byte) 0);
+        rowCount = 0;
+        nullCount = 0;
+    }
+}
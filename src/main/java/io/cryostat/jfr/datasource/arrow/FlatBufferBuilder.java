@@ -0,0 +1,191 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.arrow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds the FlatBuffers encoded metadata of Arrow IPC messages. Like the reference builder, the
+ * buffer is filled from the back, so objects have to be finished before the objects referring to
+ * them are started. Offsets returned by the methods are counted from the end of the buffer.
+ * Vtables are not deduplicated, and fields are written even if they hold their default value.
+ */
+final class FlatBufferBuilder {
+
+    private byte[] bytes = new byte[1024];
+    // Bytes still free at the front of the buffer
+    private int space = bytes.length;
+    private int minAlign = 1;
+    private int[] vtable = new int[0];
+    private int objectStart;
+    private int vectorLength;
+
+    int offset() {
+        return bytes.length - space;
+    }
+
+    /** Aligns the next {@code size} bytes to {@code size} after {@code additional} more bytes. */
+    void prep(int size, int additional) {
+        if (size > minAlign) {
+            minAlign = size;
+        }
+        int alignSize = (-(bytes.length - space + additional)) & (size - 1);
+        while (space < alignSize + size + additional) {
+            int oldLength = bytes.length;
+            byte[] grown = new byte[oldLength * 2];
+            System.arraycopy(bytes, 0, grown, oldLength, oldLength);
+            bytes = grown;
+            space += oldLength;
+        }
+        for (int i = 0; i < alignSize; i++) {
+            bytes[--space] = 0;
+        }
+    }
+
+    void putByte(int value) {
+        bytes[--space] = (byte) value;
+    }
+
+    void putShort(int value) {
+        putByte(value >> 8);
+        putByte(value);
+    }
+
+    void putInt(int value) {
+        putShort(value >> 16);
+        putShort(value);
+    }
+
+    void putLong(long value) {
+        putInt((int) (value >> 32));
+        putInt((int) value);
+    }
+
+    void addByte(int slot, int value) {
+        prep(Byte.BYTES, 0);
+        putByte(value);
+        vtable[slot] = offset();
+    }
+
+    void addShort(int slot, int value) {
+        prep(Short.BYTES, 0);
+        putShort(value);
+        vtable[slot] = offset();
+    }
+
+    void addLong(int slot, long value) {
+        prep(Long.BYTES, 0);
+        putLong(value);
+        vtable[slot] = offset();
+    }
+
+    void addOffset(int slot, int offset) {
+        addOffset(offset);
+        vtable[slot] = offset();
+    }
+
+    /** Writes a reference to an object which is already finished. */
+    void addOffset(int offset) {
+        prep(Integer.BYTES, 0);
+        putInt(offset() - offset + Integer.BYTES);
+    }
+
+    int createString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        prep(Integer.BYTES, utf8.length + 1);
+        putByte(0);
+        space -= utf8.length;
+        System.arraycopy(utf8, 0, bytes, space, utf8.length);
+        putInt(utf8.length);
+        return offset();
+    }
+
+    /**
+     * Starts a vector of {@code length} elements, which then have to be written in reverse order.
+     */
+    void startVector(int elementSize, int length, int alignment) {
+        prep(Integer.BYTES, elementSize * length);
+        prep(alignment, elementSize * length);
+        vectorLength = length;
+    }
+
+    int endVector() {
+        putInt(vectorLength);
+        return offset();
+    }
+
+    void startTable(int slots) {
+        vtable = new int[slots];
+        objectStart = offset();
+    }
+
+    int endTable() {
+        // Placeholder for the offset to the vtable
+        prep(Integer.BYTES, 0);
+        putInt(0);
+        int tableOffset = offset();
+        int slots = vtable.length;
+        while (slots > 0 && vtable[slots - 1] == 0) {
+            slots--;
+        }
+        for (int i = slots - 1; i >= 0; i--) {
+            prep(Short.BYTES, 0);
+            putShort(vtable[i] == 0 ? 0 : tableOffset - vtable[i]);
+        }
+        prep(Short.BYTES, 0);
+        putShort(tableOffset - objectStart);
+        putShort((slots + 2) * Short.BYTES);
+        int vtableOffset = offset();
+        // The table refers to the vtable which now precedes it
+        int position = bytes.length - tableOffset;
+        int relative = vtableOffset - tableOffset;
+        bytes[position] = (byte) relative;
+        bytes[position + 1] = (byte) (relative >> 8);
+        bytes[position + 2] = (byte) (relative >> 16);
+        bytes[position + 3] = (byte) (relative >> 24);
+        return tableOffset;
+    }
+
+    /** Writes the reference to the root table and returns the finished buffer. */
+    byte[] finish(int root) {
+        prep(minAlign, Integer.BYTES);
+        addOffset(root);
+        return Arrays.copyOfRange(bytes, space, bytes.length);
+    }
+}
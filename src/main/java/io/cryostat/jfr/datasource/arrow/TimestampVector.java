@@ -0,0 +1,105 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.arrow;
+
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+
+/** Timestamps in nanoseconds since the epoch, in UTC. */
+public class TimestampVector extends ArrowVector {
+
+    // Values of the Type union and of the TimeUnit enum of the Arrow schema
+    private static final int TYPE_TIMESTAMP = 10;
+    private static final int UNIT_NANOSECOND = 3;
+
+    private long[] values = new long[1024];
+
+    public TimestampVector(String name) {
+        super(name);
+    }
+
+    public void add(long epochNanos) {
+        int row = nextRow(true);
+        if (row == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[row] = epochNanos;
+    }
+
+    @Override
+    public void addNull() {
+        int row = getRowCount();
+        if (row == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[row] = 0;
+        super.addNull();
+    }
+
+    @Override
+    int getTypeId() {
+        return TYPE_TIMESTAMP;
+    }
+
+    @Override
+    int writeType(FlatBufferBuilder builder) {
+        int timezone = builder.createString("UTC");
+        builder.startTable(2);
+        builder.addOffset(1, timezone);
+        builder.addShort(0, UNIT_NANOSECOND);
+        return builder.endTable();
+    }
+
+    @Override
+    int getValueBufferCount() {
+        return 1;
+    }
+
+    @Override
+    int getValueBufferLength(int index) {
+        return getRowCount() * Long.BYTES;
+    }
+
+    @Override
+    void writeValueBuffer(int index, ByteBuf out) {
+        for (int row = 0; row < getRowCount(); row++) {
+            out.writeLongLE(values[row]);
+        }
+    }
+}
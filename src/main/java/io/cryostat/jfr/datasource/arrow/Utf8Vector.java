@@ -0,0 +1,123 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.arrow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+
+/** UTF-8 encoded strings, stored one after the other with the offset at which each one ends. */
+public class Utf8Vector extends ArrowVector {
+
+    // Value of the Type union of the Arrow schema
+    private static final int TYPE_UTF8 = 5;
+
+    // End offset of every row, preceded by the start offset of the first one
+    private int[] offsets = new int[1025];
+    private byte[] data = new byte[16 * 1024];
+
+    public Utf8Vector(String name) {
+        super(name);
+    }
+
+    /** Adds a string, or a missing value if it is {@code null}. */
+    public void add(String value) {
+        if (value == null) {
+            addNull();
+            return;
+        }
+        int row = nextRow(true);
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        int start = offsets[row];
+        if (start + utf8.length > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, start + utf8.length));
+        }
+        System.arraycopy(utf8, 0, data, start, utf8.length);
+        setEnd(row, start + utf8.length);
+    }
+
+    @Override
+    public void addNull() {
+        int row = getRowCount();
+        super.addNull();
+        setEnd(row, offsets[row]);
+    }
+
+    private void setEnd(int row, int end) {
+        if (row + 1 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[row + 1] = end;
+    }
+
+    @Override
+    int getTypeId() {
+        return TYPE_UTF8;
+    }
+
+    @Override
+    int writeType(FlatBufferBuilder builder) {
+        builder.startTable(0);
+        return builder.endTable();
+    }
+
+    @Override
+    int getValueBufferCount() {
+        return 2;
+    }
+
+    @Override
+    int getValueBufferLength(int index) {
+        if (index == 0) {
+            return (getRowCount() + 1) * Integer.BYTES;
+        }
+        return offsets[getRowCount()];
+    }
+
+    @Override
+    void writeValueBuffer(int index, ByteBuf out) {
+        if (index == 0) {
+            for (int row = 0; row <= getRowCount(); row++) {
+                out.writeIntLE(offsets[row]);
+            }
+        } else {
+            out.writeBytes(data, 0, offsets[getRowCount()]);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import io.cryostat.jfr.datasource.index.Column;
+import io.cryostat.jfr.datasource.index.EventTable;
+import io.cryostat.jfr.datasource.index.RowSet;
+import io.cryostat.jfr.datasource.json.JsonWriter;
+
+/** The timestamped values of a timeseries, or the rows of a table, accessed by their index. */
+interface Datapoints {
+
+    Datapoints EMPTY = ofValues(new long[0], new double[0], false);
+
+    int size();
+
+    /** Timestamp of a datapoint in milliseconds since the epoch. */
+    long getTime(int index);
+
+    void writeValue(JsonWriter writer, int index);
+
+    /** The values of a column at the given rows, timestamped with the start of their events. */
+    static Datapoints ofRows(EventTable events, Column column, RowSet rows) {
+        return new Datapoints() {
+            @Override
+            public int size() {
+                return rows.size();
+            }
+
+            @Override
+            public long getTime(int index) {
+                return events.getStartMillis(rows.get(index));
+            }
+
+            @Override
+            public void writeValue(JsonWriter writer, int index) {
+                if (column.isNumeric()) {
+                    writer.value(column.getDouble(rows.get(index))); // null if there is none
+                } else {
+                    // Note: content can be JSON, which requires transformation in Grafana.
+                    writer.value(column.getString(rows.get(index)));
+                }
+            }
+        };
+    }
+
+    /** Computed values, written as integers if {@code integral} is set. */
+    static Datapoints ofValues(long[] times, double[] values, boolean integral) {
+        return new Datapoints() {
+            @Override
+            public int size() {
+                return times.length;
+            }
+
+            @Override
+            public long getTime(int index) {
+                return times[index];
+            }
+
+            @Override
+            public void writeValue(JsonWriter writer, int index) {
+                if (integral) {
+                    writer.value((long) values[index]);
+                } else {
+                    writer.value(values[index]);
+                }
+            }
+        };
+    }
+}
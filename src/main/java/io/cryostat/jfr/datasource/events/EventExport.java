@@ -0,0 +1,143 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import io.cryostat.jfr.datasource.arrow.ArrowProducer;
+import io.cryostat.jfr.datasource.arrow.ArrowVector;
+import io.cryostat.jfr.datasource.arrow.Float64Vector;
+import io.cryostat.jfr.datasource.arrow.TimestampVector;
+import io.cryostat.jfr.datasource.arrow.Utf8Vector;
+import io.cryostat.jfr.datasource.index.Column;
+import io.cryostat.jfr.datasource.index.EventTable;
+
+/**
+ * Exports a range of the rows of an event table as Arrow record batches of at most {@link
+ * #BATCH_SIZE} rows. Only one batch is held at a time, whatever the number of rows. The start and
+ * end times of events are exported as timestamps, other numeric fields as doubles in their display
+ * unit, and all others as strings.
+ */
+class EventExport implements ArrowProducer {
+
+    static final int BATCH_SIZE = 4096;
+
+    static final String START_TIME_FIELD = "startTime";
+    static final String END_TIME_FIELD = "endTime";
+
+    private final List<ArrowVector> vectors = new ArrayList<>();
+    // Adds the value of a row to the vector of each field
+    private final List<IntConsumer> appenders = new ArrayList<>();
+    private final int end;
+    private int next;
+
+    /**
+     * @param fields names of the exported fields, each of which must be {@link #START_TIME_FIELD},
+     *     {@link #END_TIME_FIELD} or a column of the table
+     * @param first index of the first exported row
+     * @param end index after the last exported row
+     */
+    EventExport(EventTable table, List<String> fields, int first, int end) {
+        for (String field : fields) {
+            if (field.equals(START_TIME_FIELD) || field.equals(END_TIME_FIELD)) {
+                TimestampVector vector = new TimestampVector(field);
+                boolean start = field.equals(START_TIME_FIELD);
+                vectors.add(vector);
+                appenders.add(
+                        row -> {
+                            long time = start ? table.getStartTime(row) : table.getEndTime(row);
+                            if (time == Long.MIN_VALUE) {
+                                vector.addNull();
+                            } else {
+                                vector.add(time);
+                            }
+                        });
+                continue;
+            }
+            Column column = table.getColumn(field).orElseThrow();
+            if (column.isNumeric()) {
+                Float64Vector vector = new Float64Vector(field);
+                vectors.add(vector);
+                appenders.add(
+                        row -> {
+                            double value = column.getDouble(row);
+                            if (Double.isNaN(value)) {
+                                vector.addNull();
+                            } else {
+                                vector.add(value);
+                            }
+                        });
+            } else {
+                Utf8Vector vector = new Utf8Vector(field);
+                vectors.add(vector);
+                appenders.add(row -> vector.add(column.getString(row)));
+            }
+        }
+        this.next = first;
+        this.end = Math.max(first, end);
+    }
+
+    /** The fields exported if none are chosen: the start time, then every column. */
+    static List<String> getDefaultFields(EventTable table) {
+        List<String> fields = new ArrayList<>();
+        if (!table.getColumns().containsKey(START_TIME_FIELD)) {
+            fields.add(START_TIME_FIELD);
+        }
+        fields.addAll(table.getColumns().keySet());
+        return fields;
+    }
+
+    @Override
+    public List<ArrowVector> getVectors() {
+        return Collections.unmodifiableList(vectors);
+    }
+
+    @Override
+    public boolean produce() {
+        int batchEnd = Math.min(next + BATCH_SIZE, end);
+        for (; next < batchEnd; next++) {
+            for (IntConsumer appender : appenders) {
+                appender.accept(next);
+            }
+        }
+        return next < end;
+    }
+}
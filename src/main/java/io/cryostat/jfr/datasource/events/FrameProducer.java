@@ -0,0 +1,128 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.Optional;
+
+import io.cryostat.jfr.datasource.json.JsonProducer;
+import io.cryostat.jfr.datasource.json.JsonWriter;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Writes one timeseries or table of a query response as a Grafana data frame: a time field and a
+ * value field, each with all of its values in one array. If timestamps are delta encoded, the first
+ * one is sent as is and each of the others as the difference from the one before it.
+ */
+class FrameProducer implements JsonProducer {
+
+    private static final int SLICE = 1024;
+
+    private final JsonObject schema;
+    private final Datapoints datapoints;
+    private final boolean deltaTimestamps;
+    private boolean timesWritten;
+    private int next = -1;
+
+    /**
+     * @param valueField the schema of the value field, with at least its {@code name} and {@code
+     *     type}
+     */
+    FrameProducer(
+            String name,
+            Optional<String> refId,
+            JsonObject valueField,
+            Datapoints datapoints,
+            boolean deltaTimestamps) {
+        JsonObject timeField = new JsonObject();
+        timeField.put("name", "Time");
+        timeField.put("type", "time");
+        if (deltaTimestamps) {
+            timeField.put("encoding", "delta");
+        }
+        this.schema = new JsonObject();
+        schema.put("name", name);
+        refId.ifPresent(id -> schema.put("refId", id));
+        schema.put("fields", new JsonArray().add(timeField).add(valueField));
+        this.datapoints = datapoints;
+        this.deltaTimestamps = deltaTimestamps;
+    }
+
+    @Override
+    public boolean produce(JsonWriter writer) {
+        if (next < 0) {
+            writer.beginObject();
+            writer.name("schema").rawValue(schema.encode());
+            writer.name("data").beginObject();
+            writer.name("values").beginArray();
+            writer.beginArray();
+            next = 0;
+        }
+        int size = datapoints.size();
+        int end = Math.min(next + SLICE, size);
+        if (!timesWritten) {
+            for (; next < end; next++) {
+                long time = datapoints.getTime(next);
+                if (deltaTimestamps && next > 0) {
+                    time -= datapoints.getTime(next - 1);
+                }
+                writer.value(time);
+            }
+            if (next < size) {
+                return true;
+            }
+            writer.endArray();
+            writer.beginArray();
+            timesWritten = true;
+            next = 0;
+            return true;
+        }
+        for (; next < end; next++) {
+            datapoints.writeValue(writer, next);
+        }
+        if (next < size) {
+            return true;
+        }
+        writer.endArray();
+        writer.endArray();
+        writer.endObject();
+        writer.endObject();
+        return false;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.vertx.core.json.JsonObject;
+
+/** Tracks a single, possibly still running, load of a recording file. */
+public class LoadProgress {
+
+    public enum State {
+        PENDING,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String fileName;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private final AtomicLong bytesParsed = new AtomicLong();
+    private final AtomicInteger chunksDone = new AtomicInteger();
+    private volatile long bytesTotal;
+    private volatile int chunksTotal;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile String error;
+    private volatile boolean cached;
+
+    public LoadProgress(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Completes normally once the recording has been swapped in, or exceptionally if the load
+     * failed or was cancelled.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    public boolean isCancelled() {
+        return state.get() == State.CANCELLED;
+    }
+
+    void start(long bytesTotal, int chunksTotal) {
+        this.bytesTotal = bytesTotal;
+        this.chunksTotal = chunksTotal;
+        this.startNanos = System.nanoTime();
+        state.compareAndSet(State.PENDING, State.RUNNING);
+    }
+
+    void startFromCache(long bytesTotal) {
+        this.cached = true;
+        start(bytesTotal, 0);
+        bytesParsed.set(bytesTotal);
+    }
+
+    void chunkParsed(long bytes) {
+        bytesParsed.addAndGet(bytes);
+        chunksDone.incrementAndGet();
+    }
+
+    /**
+     * Requests cancellation. Chunks which have not started parsing yet are skipped, chunks which
+     * are still being read stop, and the result of the load is discarded. Has no effect if the load
+     * already finished.
+     */
+    public boolean cancel() {
+        if (finish(State.CANCELLED)) {
+            completion.cancel(false);
+            return true;
+        }
+        return false;
+    }
+
+    void complete() {
+        if (finish(State.COMPLETED)) {
+            completion.complete(null);
+        }
+    }
+
+    void fail(Throwable t) {
+        if (finish(State.FAILED)) {
+            this.error = t.getMessage();
+            completion.completeExceptionally(t);
+        }
+    }
+
+    private boolean finish(State terminal) {
+        State current = state.get();
+        while (current == State.PENDING || current == State.RUNNING) {
+            if (state.compareAndSet(current, terminal)) {
+                endNanos = System.nanoTime();
+                return true;
+            }
+            current = state.get();
+        }
+        return false;
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.put("id", id);
+        json.put("file", fileName);
+        json.put("state", state.get().name());
+        json.put("bytesTotal", bytesTotal);
+        json.put("bytesParsed", bytesParsed.get());
+        json.put("chunksTotal", chunksTotal);
+        json.put("chunksDone", chunksDone.get());
+        json.put("cached", cached);
+
+        long elapsedNanos = 0;
+        if (startNanos != 0) {
+            elapsedNanos = (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+        }
+        json.put("elapsedMs", elapsedNanos / 1_000_000);
+
+        long parsed = bytesParsed.get();
+        if (state.get() == State.RUNNING && parsed > 0) {
+            double remaining = (double) (bytesTotal - parsed) / parsed;
+            json.put("etaMs", (long) (elapsedNanos * remaining / 1_000_000));
+        } else if (state.get() == State.COMPLETED) {
+            json.put("etaMs", 0L);
+        } else {
+            json.putNull("etaMs");
+        }
+        if (error != null) {
+            json.put("error", error);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.openjdk.jmc.common.io.IOToolkit;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.ItemCollectionToolkit;
+import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads JFR files by splitting them at chunk boundaries and parsing each chunk on a bounded {@link
+ * ForkJoinPool}. Every JFR chunk (format version 1.0 and later) carries its own metadata and
+ * constant pools, so chunks can be parsed independently and merged afterwards.
+ */
+@ApplicationScoped
+public class ParallelChunkLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelChunkLoader.class);
+
+    private static final byte[] CHUNK_MAGIC = {'F', 'L', 'R', '\0'};
+    // magic (4) + major (2) + minor (2) + chunk size (8)
+    private static final int CHUNK_HEADER_PREFIX_SIZE = 16;
+    // prefix + constant pool offset, metadata offset, start nanos, duration nanos, start ticks,
+    // ticks per second (8 each) + features (4)
+    private static final int CHUNK_HEADER_SIZE = CHUNK_HEADER_PREFIX_SIZE + 6 * 8 + 4;
+
+    @ConfigProperty(name = "jfr-datasource.loader.parallelism")
+    int parallelism;
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    void init() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /** The pool chunks are parsed on, which also suits other CPU bound load work. */
+    public ExecutorService getExecutor() {
+        return pool;
+    }
+
+    /**
+     * Loads all events of the given file, reporting progress chunk by chunk. If the load is
+     * cancelled, chunks which have not been started yet are skipped, chunks which are still being
+     * read stop at their next read, and a {@link CancellationException} is thrown.
+     */
+    public IItemCollection load(File file, LoadProgress progress)
+            throws IOException, CouldNotLoadRecordingException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Chunk> chunks = readChunks(channel);
+            if (chunks.size() < 2) {
+                progress.start(channel.size(), 1);
+                // Read as one stream, which may also be a compressed recording
+                IItemCollection events =
+                        JfrLoaderToolkit.loadEvents(
+                                IOToolkit.openUncompressedStream(
+                                        new ChunkInputStream(
+                                                channel, 0, channel.size(), progress)));
+                progress.chunkParsed(channel.size());
+                return events;
+            }
+            progress.start(channel.size(), chunks.size());
+            LOGGER.info(
+                    "Parsing "
+                            + chunks.size()
+                            + " chunks with parallelism "
+                            + pool.getParallelism());
+
+            List<Callable<IItemCollection>> tasks = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                tasks.add(
+                        () -> {
+                            if (progress.isCancelled()) {
+                                throw new CancellationException();
+                            }
+                            IItemCollection events =
+                                    JfrLoaderToolkit.loadEvents(
+                                            new ChunkInputStream(
+                                                    channel,
+                                                    chunk.getOffset(),
+                                                    chunk.getSize(),
+                                                    progress));
+                            progress.chunkParsed(chunk.getSize());
+                            return events;
+                        });
+            }
+
+            List<IItemCollection> parts = new ArrayList<>();
+            for (Future<IItemCollection> future : pool.invokeAll(tasks)) {
+                parts.add(future.get());
+            }
+            return ItemCollectionToolkit.merge(parts::stream);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + file.getName(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            } else if (cause instanceof CouldNotLoadRecordingException) {
+                throw (CouldNotLoadRecordingException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Computes a hash identifying the content of a recording. Every chunk header records the chunk
+     * size, the offsets of its metadata and constant pools and its start time with nanosecond
+     * precision, so hashing the headers rather than the whole file is enough to tell recordings
+     * apart while staying cheap for multi-gigabyte files. Files which cannot be split into chunks
+     * are hashed in full.
+     */
+    public String contentHash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Chunk> chunks = readChunks(channel);
+            boolean headersOnly = !chunks.isEmpty();
+            if (!headersOnly) {
+                chunks = List.of(new Chunk(0, channel.size()));
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (Chunk chunk : chunks) {
+                long length = headersOnly ? CHUNK_HEADER_SIZE : chunk.getSize();
+                long read = 0;
+                while (read < length) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), length - read));
+                    int n = readFully(channel, buffer, chunk.getOffset() + read);
+                    if (n <= 0) {
+                        break;
+                    }
+                    buffer.flip();
+                    digest.update(buffer);
+                    read += n;
+                }
+            }
+            digest.update(ByteBuffer.allocate(Long.BYTES).putLong(0, channel.size()));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Walks the chunk headers of a recording. Returns an empty list if the file does not look like
+     * a well-formed sequence of version 1+ chunks, in which case the caller should fall back to the
+     * sequential JMC loader which knows how to deal with legacy or truncated recordings.
+     */
+    static List<Chunk> readChunks(FileChannel channel) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long fileSize = channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_PREFIX_SIZE);
+        while (offset < fileSize) {
+            header.clear();
+            if (readFully(channel, header, offset) < CHUNK_HEADER_PREFIX_SIZE) {
+                return List.of();
+            }
+            for (int i = 0; i < CHUNK_MAGIC.length; i++) {
+                if (header.get(i) != CHUNK_MAGIC[i]) {
+                    return List.of();
+                }
+            }
+            short major = header.getShort(4);
+            long size = header.getLong(8);
+            if (major < 1 || size <= CHUNK_HEADER_PREFIX_SIZE || offset + size > fileSize) {
+                return List.of();
+            }
+            chunks.add(new Chunk(offset, size));
+            offset += size;
+        }
+        return chunks;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer dst, long position)
+            throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    static class Chunk {
+        private final long offset;
+        private final long size;
+
+        Chunk(long offset, long size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Reads a single chunk out of a shared {@link FileChannel} using positional reads, so that
+     * several chunks of the same file can be consumed concurrently. Reads throw a {@link
+     * CancellationException} once the load is cancelled.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private final LoadProgress progress;
+        private long position;
+
+        ChunkInputStream(FileChannel channel, long offset, long size, LoadProgress progress) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + size;
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (progress.isCancelled()) {
+                throw new CancellationException();
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(len, end - position);
+            int n = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
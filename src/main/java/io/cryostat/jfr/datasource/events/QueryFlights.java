@@ -0,0 +1,286 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.cryostat.jfr.datasource.json.JsonProducer;
+import io.cryostat.jfr.datasource.json.JsonWriter;
+
+/**
+ * Lets concurrent identical queries share one evaluation. The first query of a key starts a flight
+ * whose output is kept as encoded pieces, and queries of the same key arriving while it is under
+ * way replay those pieces instead of evaluating their targets again. Whichever response is ready
+ * for more output produces the next piece, so a slow or closed connection does not hold up the
+ * others.
+ *
+ * <p>Pieces are copied out of the writer they are produced in once, and the same copies are kept by
+ * the {@link QueryResultCache} if it is enabled.
+ *
+ * <p>A flight stops taking on queries once it is complete, or once its output exceeds {@link
+ * #MAX_SHARED_BYTES}. From then on, pieces every remaining response has written are dropped, and
+ * the flight is discarded once the last of them is finished or closed.
+ */
+class QueryFlights {
+
+    static final long MAX_SHARED_BYTES = 8 * 1024 * 1024;
+
+    private final QueryResultCache cache;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicInteger open = new AtomicInteger();
+
+    QueryFlights(QueryResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * The response to a query with the given key, which shares the output of a flight of the same
+     * key if one is under way.
+     *
+     * @param producer creates the response if a new flight has to be started
+     */
+    JsonProducer join(String key, Supplier<JsonProducer> producer) {
+        while (true) {
+            boolean[] started = new boolean[1];
+            Flight flight =
+                    flights.computeIfAbsent(
+                            key,
+                            k -> {
+                                started[0] = true;
+                                return new Flight(
+                                        k,
+                                        producer.get(),
+                                        cache.isEnabled() ? cache.record(k) : null);
+                            });
+            Passenger passenger = flight.board();
+            if (passenger != null) {
+                if (!started[0]) {
+                    coalesced.incrementAndGet();
+                }
+                return passenger;
+            }
+            // The flight stopped taking on queries after it was looked up
+            flights.remove(key, flight);
+        }
+    }
+
+    /** Number of queries which shared the evaluation of an identical query. */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /** Number of flights with responses still being written. */
+    int getOpen() {
+        return open.get();
+    }
+
+    /**
+     * Stops all flights from taking on queries, for when the recordings they evaluate are replaced.
+     * Responses already sharing a flight are still written.
+     */
+    void clear() {
+        for (Flight flight : flights.values()) {
+            flight.close();
+        }
+    }
+
+    private final class Flight {
+
+        private final String key;
+        private final JsonProducer producer;
+        // null if responses are not cached
+        private final QueryResultCache.Recorder recorder;
+        private final JsonWriter writer = new JsonWriter();
+        private final List<byte[]> pieces = new ArrayList<>();
+        private final List<Passenger> passengers = new ArrayList<>();
+        private long size;
+        private boolean boarding = true;
+        private boolean complete;
+        private boolean landed;
+        private RuntimeException failure;
+
+        Flight(String key, JsonProducer producer, QueryResultCache.Recorder recorder) {
+            this.key = key;
+            this.producer = producer;
+            this.recorder = recorder;
+            open.incrementAndGet();
+        }
+
+        synchronized Passenger board() {
+            if (!boarding) {
+                return null;
+            }
+            Passenger passenger = new Passenger(this);
+            passengers.add(passenger);
+            return passenger;
+        }
+
+        /** Writes the next piece for the passenger, producing it first if needed. */
+        synchronized boolean write(Passenger passenger, JsonWriter target) {
+            while (passenger.next == pieces.size() && !complete) {
+                produce();
+            }
+            if (passenger.next < pieces.size()) {
+                byte[] piece = pieces.get(passenger.next++);
+                target.rawBytes(piece, 0, piece.length);
+                drop();
+            }
+            if (passenger.next < pieces.size() || !complete) {
+                return true;
+            }
+            passengers.remove(passenger);
+            if (passengers.isEmpty()) {
+                land();
+            }
+            return false;
+        }
+
+        synchronized void leave(Passenger passenger) {
+            if (passengers.remove(passenger) && passengers.isEmpty()) {
+                // Nobody is left to finish the flight
+                closeBoarding();
+                land();
+            } else {
+                drop();
+            }
+        }
+
+        synchronized void close() {
+            closeBoarding();
+            if (passengers.isEmpty()) {
+                land();
+            } else {
+                drop();
+            }
+        }
+
+        private void produce() {
+            if (failure != null) {
+                throw failure;
+            }
+            boolean more;
+            try {
+                more = producer.produce(writer);
+            } catch (RuntimeException e) {
+                failure = e;
+                writer.release();
+                closeBoarding();
+                throw e;
+            }
+            if (writer.size() > 0) {
+                byte[] piece = writer.copySince(0);
+                writer.release();
+                pieces.add(piece);
+                size += piece.length;
+                if (recorder != null) {
+                    recorder.add(piece);
+                }
+            }
+            if (!more) {
+                complete = true;
+                if (recorder != null) {
+                    recorder.complete();
+                }
+                closeBoarding();
+            } else if (size > MAX_SHARED_BYTES) {
+                closeBoarding();
+            }
+        }
+
+        private void closeBoarding() {
+            if (boarding) {
+                boarding = false;
+                flights.remove(key, this);
+            }
+        }
+
+        private void land() {
+            if (!landed) {
+                landed = true;
+                if (!complete && failure == null) {
+                    producer.cancel();
+                }
+                pieces.clear();
+                writer.release();
+                open.decrementAndGet();
+            }
+        }
+
+        /** Drops the pieces every passenger has written, once no more can board. */
+        private void drop() {
+            if (boarding) {
+                return;
+            }
+            int written = pieces.size();
+            for (Passenger passenger : passengers) {
+                written = Math.min(written, passenger.next);
+            }
+            for (int i = written - 1; i >= 0 && pieces.get(i) != null; i--) {
+                pieces.set(i, null);
+            }
+        }
+    }
+
+    private static final class Passenger implements JsonProducer {
+
+        private final Flight flight;
+        // Index of the next piece to write
+        private int next;
+
+        Passenger(Flight flight) {
+            this.flight = flight;
+        }
+
+        @Override
+        public boolean produce(JsonWriter writer) {
+            return flight.write(this, writer);
+        }
+
+        @Override
+        public void cancel() {
+            flight.leave(this);
+        }
+    }
+}
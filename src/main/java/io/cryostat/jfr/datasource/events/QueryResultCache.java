@@ -0,0 +1,252 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import io.cryostat.jfr.datasource.index.RecordingMetadata;
+import io.cryostat.jfr.datasource.json.JsonProducer;
+import io.cryostat.jfr.datasource.json.JsonWriter;
+import io.cryostat.jfr.datasource.server.Query;
+import io.cryostat.jfr.datasource.server.Target;
+
+/**
+ * Keeps the encoded responses of recent queries, so that dashboards refreshing the same panels
+ * against an unchanged recording are answered without evaluating their targets again. Entries are
+ * keyed by the snapshot version and a normalized form of the query, and are evicted in least
+ * recently used order once their combined size exceeds the budget. Responses larger than a quarter
+ * of the budget are not kept.
+ *
+ * <p>Responses are kept as the pieces they were produced in, and the pieces are shared with
+ * whatever else holds on to them, such as a {@link QueryFlights} flight, rather than copied.
+ */
+class QueryResultCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Response> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+
+    QueryResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /** The key of a query on the given snapshot. */
+    static String key(RecordingSnapshot snapshot, Query query, List<Target> targets) {
+        return snapshot.getVersion() + "|" + normalize(snapshot, query, targets);
+    }
+
+    /**
+     * A normalized form of the query, independent of the snapshot version. Options are sorted, and
+     * the time range is clamped to the span of the recording's events. Ranges which differ only
+     * outside of that span select the same events and thereby share a normalized form, such as the
+     * moving ranges of a refreshing dashboard once the recording has ended.
+     */
+    static String normalize(RecordingSnapshot snapshot, Query query, List<Target> targets) {
+        RecordingMetadata metadata = snapshot.getStore().getMetadata();
+        long from = query.getFrom();
+        long to = query.getTo();
+        if (metadata.getEventCount() > 0) {
+            // Widened by a millisecond, as the span is rounded to the nearest millisecond
+            from = Math.max(from, metadata.getStartMillis() - 1);
+            to = Math.min(to, metadata.getEndMillis() + 1);
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(query.getFormat())
+                .append('|')
+                .append(query.isDeltaTimestamps())
+                .append('|')
+                .append(query.getMaxDataPoints().map(String::valueOf).orElse(""))
+                .append('|')
+                .append(query.getIntervalMs())
+                .append('|')
+                .append(from)
+                .append('|')
+                .append(to);
+        for (Target target : targets) {
+            Map<String, Set<String>> options = new TreeMap<>();
+            target.getTargetOptions()
+                    .forEach((field, values) -> options.put(field, new TreeSet<>(values)));
+            key.append("|{")
+                    .append(target.getType())
+                    .append('|')
+                    .append(target.getTargetIdentifier())
+                    .append('|')
+                    .append(target.getRefId().orElse(""))
+                    .append('|')
+                    .append(options)
+                    .append('|')
+                    .append(target.getRangeMode())
+                    .append('|')
+                    .append(target.getDownsampling())
+                    .append('|')
+                    .append(target.getAggregation().map(String::valueOf).orElse(""))
+                    .append('|')
+                    .append(target.getInterval().map(String::valueOf).orElse(""))
+                    .append('|')
+                    .append(target.getGroupBy())
+                    .append('|')
+                    .append(target.getLimit())
+                    .append('}');
+        }
+        return key.toString();
+    }
+
+    /** The pieces of the cached response to the query with the given key, in order. */
+    synchronized Optional<List<byte[]>> get(String key) {
+        Response response = entries.get(key);
+        if (response == null) {
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(response.pieces);
+    }
+
+    /** Number of queries answered from the cache so far. */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /** Passes on the output of the producer, and keeps it under the given key once complete. */
+    JsonProducer caching(String key, JsonProducer producer) {
+        Recorder recorder = record(key);
+        return new JsonProducer() {
+            @Override
+            public boolean produce(JsonWriter writer) {
+                int size = writer.size();
+                boolean more = producer.produce(writer);
+                if (recorder.isRecording()) {
+                    recorder.add(writer.copySince(size));
+                }
+                if (!more) {
+                    recorder.complete();
+                }
+                return more;
+            }
+
+            @Override
+            public void cancel() {
+                producer.cancel();
+            }
+        };
+    }
+
+    /** Collects the pieces of the response to the query with the given key as they are produced. */
+    Recorder record(String key) {
+        return new Recorder(key);
+    }
+
+    /**
+     * Keeps the pieces it is given under its key once the response is complete, unless they exceed
+     * a quarter of the budget. Pieces are kept by reference, so they must not be modified.
+     */
+    final class Recorder {
+        private final String key;
+        private List<byte[]> pieces = new ArrayList<>();
+        private long size;
+
+        private Recorder(String key) {
+            this.key = key;
+        }
+
+        /** Whether the response may still be kept. */
+        boolean isRecording() {
+            return pieces != null;
+        }
+
+        void add(byte[] piece) {
+            if (pieces == null) {
+                return;
+            }
+            pieces.add(piece);
+            size += piece.length;
+            if (size > maxBytes / 4) {
+                pieces = null;
+            }
+        }
+
+        /** Keeps the pieces added so far as the whole response. */
+        void complete() {
+            if (pieces != null) {
+                put(key, new Response(pieces, size));
+                pieces = null;
+            }
+        }
+    }
+
+    private synchronized void put(String key, Response response) {
+        Response previous = entries.put(key, response);
+        if (previous != null) {
+            totalBytes -= previous.size;
+        }
+        totalBytes += response.size;
+
+        Iterator<Response> it = entries.values().iterator();
+        while (totalBytes > maxBytes) {
+            totalBytes -= it.next().size;
+            it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    private static final class Response {
+        private final List<byte[]> pieces;
+        private final long size;
+
+        Response(List<byte[]> pieces, long size) {
+            this.pieces = pieces;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps recently loaded recordings resident so that switching back to one of them does not require
+ * parsing it again. Entries are keyed by file name and content hash, and are evicted in least
+ * recently used order once their combined estimated heap footprint exceeds the budget. The most
+ * recently added entry is always retained, even if it alone exceeds the budget.
+ */
+class RecordingCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordingCache.class);
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, RecordingSnapshot> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    RecordingCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized Optional<RecordingSnapshot> get(String fileName, String contentHash) {
+        return Optional.ofNullable(entries.get(key(fileName, contentHash)));
+    }
+
+    synchronized void put(RecordingSnapshot snapshot) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        RecordingSnapshot previous =
+                entries.put(key(snapshot.getFileName(), snapshot.getContentHash()), snapshot);
+        if (previous != null) {
+            totalBytes -= previous.getEstimatedSize();
+        }
+        totalBytes += snapshot.getEstimatedSize();
+
+        Iterator<Map.Entry<String, RecordingSnapshot>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1) {
+            RecordingSnapshot evicted = it.next().getValue();
+            it.remove();
+            totalBytes -= evicted.getEstimatedSize();
+            LOGGER.info(
+                    "Evicted "
+                            + evicted.getFileName()
+                            + " (~"
+                            + evicted.getEstimatedSize()
+                            + " bytes) from the recording cache");
+        }
+    }
+
+    synchronized void invalidate(String fileName) {
+        Iterator<RecordingSnapshot> it = entries.values().iterator();
+        while (it.hasNext()) {
+            RecordingSnapshot snapshot = it.next();
+            if (snapshot.getFileName().equals(fileName)) {
+                it.remove();
+                totalBytes -= snapshot.getEstimatedSize();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    private static String key(String fileName, String contentHash) {
+        return fileName + '@' + contentHash;
+    }
+}
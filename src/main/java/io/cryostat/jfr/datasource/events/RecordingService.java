@@ -39,44 +39,60 @@ package io.cryostat.jfr.datasource.events;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
-import org.openjdk.jmc.common.item.IAttribute;
-import org.openjdk.jmc.common.item.IItem;
 import org.openjdk.jmc.common.item.IItemCollection;
-import org.openjdk.jmc.common.item.IItemIterable;
-import org.openjdk.jmc.common.item.IMemberAccessor;
-import org.openjdk.jmc.common.item.IType;
-import org.openjdk.jmc.common.item.ItemFilters;
-import org.openjdk.jmc.common.item.ItemToolkit;
-import org.openjdk.jmc.common.unit.IQuantity;
-import org.openjdk.jmc.common.unit.IRange;
-import org.openjdk.jmc.common.unit.IUnit;
-import org.openjdk.jmc.common.unit.QuantityConversionException;
-import org.openjdk.jmc.common.unit.QuantityRange;
-import org.openjdk.jmc.common.unit.UnitLookup;
 import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
-import org.openjdk.jmc.flightrecorder.JfrAttributes;
-import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
 
+import io.cryostat.jfr.datasource.arrow.ArrowProducer;
+import io.cryostat.jfr.datasource.index.Aggregation;
+import io.cryostat.jfr.datasource.index.Column;
+import io.cryostat.jfr.datasource.index.EventStore;
+import io.cryostat.jfr.datasource.index.EventTable;
+import io.cryostat.jfr.datasource.index.GroupBy;
+import io.cryostat.jfr.datasource.index.RecordingMetadata;
+import io.cryostat.jfr.datasource.index.RowSet;
+import io.cryostat.jfr.datasource.index.SearchCatalog;
+import io.cryostat.jfr.datasource.json.JsonProducer;
 import io.cryostat.jfr.datasource.json.JsonUtils;
 import io.cryostat.jfr.datasource.server.Query;
+import io.cryostat.jfr.datasource.server.ResponseFormat;
 import io.cryostat.jfr.datasource.server.Search;
 import io.cryostat.jfr.datasource.server.Target;
-import io.cryostat.jfr.datasource.utils.ArgRunnable;
+import io.cryostat.jfr.datasource.utils.InvalidQueryException;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
+import io.quarkus.runtime.configuration.MemorySize;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -85,82 +101,166 @@ public class RecordingService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RecordingService.class);
 
-    private IItemCollection events;
+    // Number of finished loads whose progress can still be queried
+    private static final int MAX_TRACKED_LOADS = 16;
+
+    @Inject ParallelChunkLoader loader;
+
+    @ConfigProperty(name = "jfr-datasource.columnar.enabled")
+    boolean columnar;
+
+    @ConfigProperty(name = "jfr-datasource.cache.max-size")
+    MemorySize cacheMaxSize;
+
+    @ConfigProperty(name = "jfr-datasource.rollups.fields")
+    Optional<Set<String>> rollupFields;
+
+    @ConfigProperty(name = "jfr-datasource.query-cache.max-size")
+    MemorySize queryCacheMaxSize;
+
+    @ConfigProperty(name = "jfr-datasource.query-coalescing.enabled")
+    boolean queryCoalescing;
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final AtomicReference<RecordingSnapshot> snapshot =
+            new AtomicReference<>(RecordingSnapshot.EMPTY);
+
+    private final Map<String, LoadProgress> loads =
+            new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LoadProgress> eldest) {
+                    return size() > MAX_TRACKED_LOADS;
+                }
+            };
+    private LoadProgress currentLoad;
+    private ExecutorService loadExecutor;
+    private RecordingCache cache;
+    private QueryResultCache resultCache;
+    private QueryFlights flights;
+    private final AtomicLong queries = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        // One load runs at a time and at most one waits for it. Loads are queued in the order in
+        // which they cancel each other, so a load still waiting when another arrives is cancelled
+        // and can be dropped
+        loadExecutor =
+                new ThreadPoolExecutor(
+                        1,
+                        1,
+                        0,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(1),
+                        task -> {
+                            Thread thread = new Thread(task, "load");
+                            thread.setDaemon(true);
+                            return thread;
+                        },
+                        new ThreadPoolExecutor.DiscardOldestPolicy());
+        cache = new RecordingCache(cacheMaxSize.asLongValue());
+        resultCache = new QueryResultCache(queryCacheMaxSize.asLongValue());
+        flights = new QueryFlights(resultCache);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        loadExecutor.shutdownNow();
+    }
 
     public boolean eventsLoaded() {
-        return events != null;
+        return !snapshot.get().isEmpty();
     }
 
-    public String search(Search search) throws JsonMappingException {
-        if (!eventsLoaded()) {
-            return JsonUtils.EMPTY_ARRAY;
+    /** The recording which new queries are served from. */
+    public RecordingSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Drops the loaded recording if it was loaded from the given file.
+     *
+     * @return whether the recording was unloaded
+     */
+    public boolean unload(String fileName) {
+        cache.invalidate(fileName);
+        RecordingSnapshot current = snapshot.get();
+        if (current.getFileName().equals(fileName)
+                && snapshot.compareAndSet(current, RecordingSnapshot.EMPTY)) {
+            resultCache.clear();
+            flights.clear();
+            return true;
+        }
+        return false;
+    }
+
+    public void unloadAll() {
+        cache.clear();
+        snapshot.set(RecordingSnapshot.EMPTY);
+        resultCache.clear();
+        flights.clear();
+    }
+
+    public JsonProducer search(Search search) throws JsonMappingException {
+        return search(this.snapshot.get(), search);
+    }
+
+    public JsonProducer search(RecordingSnapshot snapshot, Search search)
+            throws JsonMappingException {
+        if (snapshot.isEmpty()) {
+            return JsonProducer.of(JsonUtils.EMPTY_ARRAY);
         }
         if (search.getTarget().isPresent()) {
             String target = search.getTarget().get();
-            return target.equals("*") ? getEventTypes() : getTargetValues(target);
+            return target.equals("*")
+                    ? getEventTypes(snapshot, search)
+                    : getTargetValues(snapshot, target, search);
         } else {
             throw new JsonMappingException(null, "missing target field in json body");
         }
     }
 
-    public String getEventTypes() throws JsonMappingException {
-        JsonArray json = new JsonArray();
-        Iterator<IItemIterable> i = events.iterator();
-        while (i.hasNext()) {
-            try {
-                IItemIterable item = i.next();
-                if (item.hasItems()) {
-                    IType<IItem> type = item.getType();
-                    List<IAttribute<?>> attributes = type.getAttributes();
-                    for (IAttribute<?> attribute : attributes) {
-                        if (attribute.getIdentifier().contains("eventType")
-                                || attribute.getIdentifier().contains("startTime")
-                                || attribute.getIdentifier().contains("endTime")) {
-                            continue;
-                        }
-                        String name = type.getIdentifier() + "." + attribute.getIdentifier();
-                        json.add(name);
-                    }
-                }
-            } catch (Exception e) {
-                return JsonUtils.EMPTY_ARRAY;
-            }
+    public JsonProducer getEventTypes(RecordingSnapshot snapshot, Search search)
+            throws JsonMappingException {
+        SearchCatalog catalog = snapshot.getStore().getCatalog();
+        if (search.getPrefix().isEmpty() && search.getLimit().isEmpty()) {
+            return JsonProducer.of(catalog.toJson());
+        }
+        return JsonProducer.ofStrings(
+                catalog.find(search.getPrefix().orElse(""), getLimit(search)));
+    }
+
+    private static int getLimit(Search search) throws JsonMappingException {
+        int limit = search.getLimit().orElse(Integer.MAX_VALUE);
+        if (limit < 0) {
+            throw new JsonMappingException(null, "limit must not be negative");
         }
-        return json.toString();
+        return limit;
     }
 
-    public String getTargetValues(String target) {
+    /**
+     * Distinct values of the target field, most frequent first. The values are counted the first
+     * time a field is searched and kept for as long as the recording is loaded.
+     */
+    public JsonProducer getTargetValues(RecordingSnapshot snapshot, String target, Search search)
+            throws JsonMappingException {
         if (target.isBlank()) {
-            return JsonUtils.EMPTY_ARRAY;
+            return JsonProducer.of(JsonUtils.EMPTY_ARRAY);
         }
 
-        JsonArray json = new JsonArray();
-        IItemCollection filteredEvents = filterEvents(target);
+        Optional<EventTable> table = findTable(snapshot, target);
         String targetField = target.substring(target.lastIndexOf(".") + 1);
-
-        // Should be only 0 or 1 iterator as filtered by name
-        for (IItemIterable itemIterable : filteredEvents) {
-            IType<IItem> type = itemIterable.getType();
-            List<IAttribute<?>> attributes = type.getAttributes();
-            IMemberAccessor<?, IItem> accessor = null;
-
-            for (IAttribute<?> attribute : attributes) {
-                if (targetField.equals(attribute.getIdentifier())) {
-                    accessor = ItemToolkit.accessor(attribute);
-                    break;
-                }
-            }
-
-            if (accessor != null) {
-                for (IItem item : itemIterable) {
-                    json.add(accessor.getMember(item).toString());
-                }
-            }
+        Optional<Column> column = table.flatMap(t -> t.getColumn(targetField));
+        if (column.isEmpty()) {
+            return JsonProducer.of(JsonUtils.EMPTY_ARRAY);
         }
-        return json.toString();
+        return JsonProducer.ofStrings(
+                column.get()
+                        .getDistinctValues()
+                        .find(search.getPrefix().orElse(""), getLimit(search)));
     }
 
-    public JsonObject getDuration() {
+    public JsonObject getDuration(RecordingSnapshot snapshot) {
         final JsonObject targetObject = new JsonObject();
 
         JsonArray columns = new JsonArray();
@@ -174,44 +274,19 @@ public class RecordingService {
         targetObject.put("rows", rows);
         targetObject.put("columns", columns);
 
-        long startTime = Long.MAX_VALUE;
-        long stopTime = 0;
-
-        for (IItemIterable itemIterable : events) {
-            IType<IItem> type = itemIterable.getType();
-            IMemberAccessor<IQuantity, IItem> startTimeAccessor =
-                    JfrAttributes.START_TIME.getAccessor(type);
-            IMemberAccessor<IQuantity, IItem> endTimeAccessor =
-                    JfrAttributes.END_TIME.getAccessor(type);
-            for (IItem item : itemIterable) {
-                try {
-                    long eventStartTime =
-                            startTimeAccessor.getMember(item).longValueIn(UnitLookup.EPOCH_MS);
-
-                    startTime = Math.min(eventStartTime, startTime);
-                    stopTime = Math.max(eventStartTime, stopTime);
-                    if (endTimeAccessor != null) {
-                        long eventEndTime =
-                                endTimeAccessor.getMember(item).longValueIn(UnitLookup.EPOCH_MS);
-                        stopTime = Math.max(eventEndTime, stopTime);
-                    }
-                } catch (QuantityConversionException e) {
-                    // Do nothing
-                }
-            }
-        }
+        RecordingMetadata metadata = snapshot.getStore().getMetadata();
 
         JsonArray row = new JsonArray();
-        LOGGER.info("Start time: " + startTime);
-        LOGGER.info("Stop time: " + stopTime);
+        LOGGER.info("Start time: " + metadata.getStartMillis());
+        LOGGER.info("Stop time: " + metadata.getEndMillis());
 
-        row.add(Long.valueOf(Math.max(stopTime - startTime, 0)));
+        row.add(Long.valueOf(metadata.getDurationMillis()));
         rows.add(row);
 
         return targetObject;
     }
 
-    public JsonObject getStartTime() {
+    public JsonObject getStartTime(RecordingSnapshot snapshot) {
         final JsonObject targetObject = new JsonObject();
 
         JsonArray columns = new JsonArray();
@@ -225,59 +300,165 @@ public class RecordingService {
         targetObject.put("rows", rows);
         targetObject.put("columns", columns);
 
-        long startTime = Long.MAX_VALUE;
+        JsonArray row = new JsonArray();
+        row.add(Long.valueOf(snapshot.getStore().getMetadata().getStartMillis()));
+        rows.add(row);
 
-        for (IItemIterable itemIterable : events) {
-            IType<IItem> type = itemIterable.getType();
-            IMemberAccessor<IQuantity, IItem> startTimeAccessor =
-                    JfrAttributes.START_TIME.getAccessor(type);
-            for (IItem item : itemIterable) {
-                try {
-                    long markTime =
-                            startTimeAccessor.getMember(item).longValueIn(UnitLookup.EPOCH_MS);
+        return targetObject;
+    }
 
-                    startTime = Math.min(markTime, startTime);
-                } catch (QuantityConversionException e) {
-                    // Do nothing
-                }
-            }
+    /** Summary of the loaded recording, if any, computed when it was loaded. */
+    public Optional<JsonObject> getMetadata() {
+        RecordingSnapshot snapshot = this.snapshot.get();
+        if (snapshot.isEmpty()) {
+            return Optional.empty();
         }
+        JsonObject json = new JsonObject();
+        json.put("file", snapshot.getFileName());
+        json.put("loadedAt", snapshot.getLoadedAt().toString());
+        json.mergeIn(snapshot.getStore().getMetadata().toJson());
+        return Optional.of(json);
+    }
 
-        JsonArray row = new JsonArray();
-        row.add(Long.valueOf(startTime));
-        rows.add(row);
+    /**
+     * The response to the given query. Targets are parsed up front, but only evaluated once the
+     * response of the previous target has been written. Responses are cached until another
+     * recording is loaded, and concurrent identical queries share one evaluation.
+     */
+    public JsonProducer query(Query query) {
+        return query(this.snapshot.get(), query);
+    }
 
-        return targetObject;
+    public JsonProducer query(RecordingSnapshot snapshot, Query query) {
+        if (snapshot.isEmpty()) {
+            return JsonProducer.of(JsonUtils.EMPTY_ARRAY);
+        }
+        Optional<List<Target>> parsed = parseTargets(snapshot, query);
+        if (parsed.isEmpty()) {
+            return JsonProducer.of(JsonUtils.EMPTY_ARRAY);
+        }
+        List<Target> targets = parsed.get();
+        queries.incrementAndGet();
+        String key = QueryResultCache.key(snapshot, query, targets);
+        if (resultCache.isEnabled()) {
+            Optional<List<byte[]>> cached = resultCache.get(key);
+            if (cached.isPresent()) {
+                return JsonProducer.ofPieces(cached.get());
+            }
+        }
+        if (queryCoalescing) {
+            // The flight keeps the response in the cache itself
+            return flights.join(key, () -> evaluate(snapshot, query, targets));
+        }
+        JsonProducer response = evaluate(snapshot, query, targets);
+        return resultCache.isEnabled() ? resultCache.caching(key, response) : response;
     }
 
-    public String query(Query query) {
+    private static Optional<List<Target>> parseTargets(RecordingSnapshot snapshot, Query query) {
+        List<Target> targets = new ArrayList<>();
         try {
-            if (events == null) {
-                return JsonUtils.EMPTY_ARRAY;
-            }
-            JsonArray responseJson = new JsonArray();
+            // Fails on an invalid range before anything is written
+            query.getFrom();
+            query.getTo();
             query.applyTargets(
-                    (t) -> {
-                        String type = t.getType();
-                        LOGGER.info(type);
-                        if (type.equals("timeserie")) {
-                            for (JsonObject obj :
-                                    this.getTimeseries(t, query.getFrom(), query.getTo())) {
-                                responseJson.add(obj);
-                            }
-                        } else if (type.equals("table")) {
-                            responseJson.add(this.getTable(t, query.getFrom(), query.getTo()));
-                        }
-                    });
-            return responseJson.toString();
+                    (eventType, field) ->
+                            snapshot.getStore()
+                                    .getTable(eventType)
+                                    .flatMap(table -> table.getColumn(field))
+                                    .isPresent(),
+                    targets::add);
         } catch (Exception e) {
             e.printStackTrace();
-            return JsonUtils.EMPTY_ARRAY;
+            return Optional.empty();
+        }
+        return Optional.of(targets);
+    }
+
+    /**
+     * A weak entity tag of the response to the query, made of the content hash of the recording
+     * and a hash of the normalized query. Empty if no recording is loaded or the query is invalid.
+     */
+    public Optional<String> getEntityTag(RecordingSnapshot snapshot, Query query) {
+        if (snapshot.isEmpty()) {
+            return Optional.empty();
+        }
+        Optional<List<Target>> targets = parseTargets(snapshot, query);
+        if (targets.isEmpty()) {
+            return Optional.empty();
+        }
+        String request = "query|" + QueryResultCache.normalize(snapshot, query, targets.get());
+        return Optional.of(entityTag(snapshot, request));
+    }
+
+    /** A weak entity tag of the response to the search, like that of a query. */
+    public Optional<String> getEntityTag(RecordingSnapshot snapshot, Search search) {
+        if (snapshot.isEmpty()) {
+            return Optional.empty();
         }
+        String request =
+                "search|"
+                        + search.getTarget().orElse("")
+                        + '|'
+                        + search.getPrefix().orElse("")
+                        + '|'
+                        + search.getLimit().map(String::valueOf).orElse("");
+        return Optional.of(entityTag(snapshot, request));
     }
 
-    public List<JsonObject> getTimeseries(Target target, long from, long to) {
-        final List<JsonObject> targetObjects = new ArrayList<>();
+    // Weak, as the same response is sent with different content encodings
+    private static String entityTag(RecordingSnapshot snapshot, String request) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(request.getBytes(StandardCharsets.UTF_8));
+        String contentHash = snapshot.getContentHash();
+        return "W/\""
+                + contentHash.substring(0, Math.min(contentHash.length(), 16))
+                + '-'
+                + HexFormat.of().formatHex(hash, 0, 8)
+                + '"';
+    }
+
+    private JsonProducer evaluate(RecordingSnapshot snapshot, Query query, List<Target> targets) {
+        List<JsonProducer> elements = new ArrayList<>();
+        for (Target t : targets) {
+            String type = t.getType();
+            LOGGER.info(type);
+            if (type.equals("timeserie")) {
+                elements.add(
+                        JsonProducer.defer(
+                                () -> JsonProducer.sequence(getTimeseries(snapshot, t, query))));
+            } else if (type.equals("table")) {
+                elements.add(JsonProducer.defer(() -> getTable(snapshot, t, query)));
+            }
+        }
+        return JsonProducer.ofArray(elements);
+    }
+
+    /**
+     * Counts of the queries answered so far. The coalescing ratio is the share of them which
+     * shared the evaluation of an identical concurrent query, and the flights in progress are the
+     * shared evaluations whose responses are still being written.
+     */
+    public JsonObject getQueryStats() {
+        long total = queries.get();
+        long coalesced = flights.getCoalesced();
+        JsonObject json = new JsonObject();
+        json.put("queries", total);
+        json.put("cacheHits", resultCache.getHits());
+        json.put("coalesced", coalesced);
+        json.put("coalescingRatio", total == 0 ? 0.0 : (double) coalesced / total);
+        json.put("inFlight", flights.getOpen());
+        return json;
+    }
+
+    public List<JsonProducer> getTimeseries(
+            RecordingSnapshot snapshot, Target target, Query query) {
+        final long from = query.getFrom();
+        final long to = query.getTo();
 
         final String targetIdentifier = target.getTargetIdentifier(); // eventName.field format
         final Map<String, Set<String>> targetOptions = target.getTargetOptions();
@@ -285,140 +466,133 @@ public class RecordingService {
         // Field name of the target event
         String eventField = targetIdentifier.substring(targetIdentifier.lastIndexOf(".") + 1);
 
-        // A set of target options that are specified as * (all)
-        final Set<String> toUpdateOptions = new HashSet<>();
+        Optional<EventTable> table = findTable(snapshot, targetIdentifier);
+        Optional<Column> targetColumn = table.flatMap(t -> t.getColumn(eventField));
+
+        // Name, grouped field and rows of each series, datapoints are only created once the
+        // series are complete
+        final List<String> names = new ArrayList<>();
+        final List<Optional<String>> paramFields = new ArrayList<>();
+        final List<RowSet> targetRows = new ArrayList<>();
+        if (targetOptions.isEmpty() && target.getGroupBy().isEmpty()) {
+            names.add(targetIdentifier);
+            paramFields.add(Optional.empty());
+            targetRows.add(
+                    targetColumn.isPresent()
+                            ? table.get().select(target.getRangeMode(), from, to)
+                            : RowSet.EMPTY);
+        } else {
+            GroupBy groupBy =
+                    new GroupBy(
+                            field -> table.flatMap(t -> t.getColumn(field)).orElse(null),
+                            targetOptions,
+                            target.getGroupBy(),
+                            target.getLimit());
+            if (targetColumn.isPresent()) {
+                RowSet rows = table.get().select(target.getRangeMode(), from, to);
+                for (int i = 0; i < rows.size(); i++) {
+                    groupBy.add(rows.get(i));
+                }
+            }
+            for (GroupBy.Group group : groupBy.getGroups()) {
+                names.add(group.getValue());
+                paramFields.add(Optional.of(group.getField()));
+                targetRows.add(RowSet.of(group.getRows()));
+            }
+        }
 
-        // Populate response json array
-        if (targetOptions.isEmpty()) {
-            targetObjects.add(createEmptyTargetJson(targetIdentifier, Optional.empty()));
+        final List<Datapoints> datapoints = new ArrayList<>();
+        String valueType = "number";
+        if (targetColumn.isEmpty()) {
+            for (int i = 0; i < names.size(); i++) {
+                datapoints.add(Datapoints.EMPTY);
+            }
+        } else if (target.getAggregation().isPresent()) {
+            EventTable events = table.get();
+            Column column = targetColumn.get();
+            Aggregation aggregation = target.getAggregation().get();
+            // Defaults to the interval Grafana picked for the panel
+            long interval =
+                    target.getInterval()
+                            .orElse(Duration.ofMillis(Math.max(query.getIntervalMs(), 1)))
+                            .toNanos();
+            for (RowSet rows : targetRows) {
+                LongStream.Builder bucketStarts = LongStream.builder();
+                DoubleStream.Builder values = DoubleStream.builder();
+                aggregation.apply(
+                        events,
+                        column,
+                        rows,
+                        interval,
+                        (bucketStart, value) -> {
+                            bucketStarts.add(TimeUnit.NANOSECONDS.toMillis(bucketStart));
+                            values.add(value);
+                        });
+                datapoints.add(
+                        Datapoints.ofValues(
+                                bucketStarts.build().toArray(),
+                                values.build().toArray(),
+                                aggregation == Aggregation.COUNT));
+            }
         } else {
-            targetOptions.forEach(
-                    (fieldName, valueSet) -> {
-                        if (valueSet.contains(
-                                "*")) { // Do not exact values. Add in each event iteration.
-                            toUpdateOptions.add(fieldName);
-                        } else {
-                            valueSet.forEach(
-                                    (val) -> {
-                                        targetObjects.add(
-                                                createEmptyTargetJson(val, Optional.of(fieldName)));
-                                    });
-                        }
-                    });
-        }
-
-        applyFilterEvents(
-                targetIdentifier,
-                from,
-                to,
-                (filteredEvents) -> {
-                    // Iterators for event types that match filters
-                    // Note: There should be only 0 or 1 iterator as filter is defined as event
-                    // name.
-                    for (IItemIterable itemIterable : filteredEvents) {
-                        IType<IItem> type = itemIterable.getType();
-                        List<IAttribute<?>> attributes = type.getAttributes();
-                        final Map<String, IMemberAccessor<?, IItem>> aMap = new HashMap<>();
-
-                        for (IAttribute<?> attribute : attributes) { // Attributes of the events
-                            if (eventField.equals(attribute.getIdentifier())) {
-                                aMap.put(eventField, ItemToolkit.accessor(attribute));
-                            } else if (targetOptions.get(attribute.getIdentifier()) != null) {
-                                aMap.put(
-                                        attribute.getIdentifier(), ItemToolkit.accessor(attribute));
-                            }
-                        }
-
-                        if (!aMap.isEmpty() && aMap.get(eventField) != null) {
-                            IMemberAccessor<?, IItem> targetAccessor = aMap.get(eventField);
-                            for (IItem item : itemIterable) { // Iterate on each event
-                                long startTime = 0;
-                                JsonArray datapoint = new JsonArray(); // [y, x]
-
-                                Object value = targetAccessor.getMember(item);
-                                if (value instanceof IQuantity) {
-                                    IQuantity quanity = (IQuantity) value;
-                                    IUnit displayUnit = displayUnit(quanity.getUnit());
-                                    datapoint.add(quanity.doubleValueIn(displayUnit));
-                                } else {
-                                    // Note: content can be JSON, which requires transformation in
-                                    // Grafana.
-                                    datapoint.add(value.toString());
-                                }
-
-                                try {
-                                    IMemberAccessor<IQuantity, IItem> startTimeAccessor =
-                                            JfrAttributes.START_TIME.getAccessor(type);
-                                    startTime =
-                                            startTimeAccessor
-                                                    .getMember(item)
-                                                    .longValueIn(UnitLookup.EPOCH_MS);
-                                } catch (QuantityConversionException e) {
-                                    // Do Nothing
-                                }
-                                datapoint.add(startTime);
-
-                                if (targetOptions.isEmpty()) {
-                                    targetObjects.get(0).getJsonArray("datapoints").add(datapoint);
-                                } else {
-                                    targetOptions.forEach(
-                                            (fieldName, valueSet) -> {
-                                                IMemberAccessor<?, IItem> accessor =
-                                                        aMap.get(fieldName);
-                                                if (accessor != null) {
-                                                    String group =
-                                                            accessor.getMember(item).toString();
-                                                    boolean found = false;
-                                                    for (JsonObject obj : targetObjects) {
-                                                        // Must match option field name (i.e.
-                                                        // category) and target name
-                                                        String paramField =
-                                                                obj.getJsonObject("meta")
-                                                                        .getString("paramField");
-                                                        if (paramField.equals(fieldName)
-                                                                && obj.getString("target")
-                                                                        .equals(group)) {
-                                                            found = true;
-                                                            obj.getJsonArray("datapoints")
-                                                                    .add(datapoint);
-                                                        }
-                                                    }
-                                                    if (toUpdateOptions.contains(fieldName)
-                                                            && !found) {
-                                                        JsonObject obj =
-                                                                createEmptyTargetJson(
-                                                                        group,
-                                                                        Optional.of(fieldName));
-                                                        obj.getJsonArray("datapoints")
-                                                                .add(datapoint);
-                                                        targetObjects.add(obj);
-                                                    }
-                                                }
-                                            });
-                                }
-                            }
-                        }
-                    }
-                });
-
-        return targetObjects;
-    }
-
-    public JsonObject getTable(Target target, long from, long to) {
-        final JsonObject targetObject = new JsonObject();
+            EventTable events = table.get();
+            Column column = targetColumn.get();
+            if (!column.isNumeric()) {
+                valueType = "string";
+            }
+            int maxPoints = query.getMaxDataPoints().orElse(Integer.MAX_VALUE);
+            long interval = TimeUnit.MILLISECONDS.toNanos(query.getIntervalMs());
+            for (RowSet rows : targetRows) {
+                datapoints.add(
+                        Datapoints.ofRows(
+                                events,
+                                column,
+                                target.getDownsampling()
+                                        .apply(events, column, rows, maxPoints, interval)));
+            }
+        }
+
+        final List<JsonProducer> targetObjects = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (query.getFormat() == ResponseFormat.DATA_FRAME) {
+                JsonObject valueField = new JsonObject();
+                valueField.put("name", eventField);
+                valueField.put("type", valueType);
+                String name = names.get(i);
+                Optional<String> paramField = paramFields.get(i);
+                if (paramField.isPresent()) {
+                    valueField.put("labels", new JsonObject().put(paramField.get(), name));
+                }
+                targetObjects.add(
+                        new FrameProducer(
+                                name,
+                                target.getRefId(),
+                                valueField,
+                                datapoints.get(i),
+                                query.isDeltaTimestamps()));
+            } else {
+                targetObjects.add(
+                        new SeriesProducer(names.get(i), paramFields.get(i), datapoints.get(i)));
+            }
+        }
+        return Collections.unmodifiableList(targetObjects);
+    }
+
+    public JsonProducer getTable(RecordingSnapshot snapshot, Target target, Query query) {
         final String targetIdentifier = target.getTargetIdentifier();
+        final boolean frames = query.getFormat() == ResponseFormat.DATA_FRAME;
 
         // Special cases for duration and startTime
         if (targetIdentifier.equals(Target.durationTargetIdentifier)) {
-            return getDuration();
+            JsonObject table = getDuration(snapshot);
+            return JsonProducer.of((frames ? toFrame(table, target) : table).encode());
         } else if (targetIdentifier.equals(Target.startTimeTargetIdentifier)) {
-            return getStartTime();
+            JsonObject table = getStartTime(snapshot);
+            return JsonProducer.of((frames ? toFrame(table, target) : table).encode());
         }
 
         String targetEventField = targetIdentifier.substring(targetIdentifier.lastIndexOf(".") + 1);
 
-        targetObject.put("type", "table");
-
         JsonArray columns = new JsonArray();
 
         JsonObject timestampCol = new JsonObject();
@@ -431,115 +605,102 @@ public class RecordingService {
         targetCol.put("type", "string"); // default string
         columns.add(targetCol);
 
-        JsonArray rows = new JsonArray();
-
-        targetObject.put("rows", rows);
-        targetObject.put("columns", columns);
-
-        applyFilterEvents(
-                targetIdentifier,
-                from,
-                to,
-                (filteredEvents) -> {
-                    // Iterators for event types that match filters
-                    // Note: There should be only 0 or 1 iterator as filter is defined as event
-                    // name.
-                    for (IItemIterable itemIterable : filteredEvents) {
-                        IType<IItem> type = itemIterable.getType();
-                        List<IAttribute<?>> attributes = type.getAttributes();
-
-                        IMemberAccessor<?, IItem> accessor = null;
-
-                        for (IAttribute<?> attribute : attributes) { // Attributes of the events
-                            if (targetEventField.equals(attribute.getIdentifier())) {
-                                accessor = ItemToolkit.accessor(attribute);
-                                columns.forEach(
-                                        (obj) -> { // Update targetField type
-                                            JsonObject jsonObj = ((JsonObject) obj);
-                                            String colName = jsonObj.getString("text");
-                                            if (colName.equals(targetEventField)) {
-                                                jsonObj.put(
-                                                        "type",
-                                                        getColumnType(
-                                                                attribute
-                                                                        .getContentType()
-                                                                        .getIdentifier()));
-                                            }
-                                        });
-                            }
-                        }
-
-                        if (accessor != null) {
-                            for (IItem item : itemIterable) {
-                                JsonArray datapoint = new JsonArray();
-                                long startTime = 0;
-                                try {
-                                    IMemberAccessor<IQuantity, IItem> startTimeAccessor =
-                                            JfrAttributes.START_TIME.getAccessor(type);
-                                    startTime =
-                                            startTimeAccessor
-                                                    .getMember(item)
-                                                    .longValueIn(UnitLookup.EPOCH_MS);
-                                } catch (QuantityConversionException e) {
-                                    // Do Nothing
-                                }
-                                datapoint.add(startTime);
-
-                                Object value = accessor.getMember(item);
-                                if (value instanceof IQuantity) {
-                                    IQuantity quanity = (IQuantity) value;
-                                    IUnit displayUnit = displayUnit(quanity.getUnit());
-                                    datapoint.add(quanity.doubleValueIn(displayUnit));
-                                } else {
-                                    datapoint.add(value.toString());
-                                }
-
-                                rows.add(datapoint);
-                            }
-                        }
-                    }
-                });
-        return targetObject;
+        Optional<EventTable> table = findTable(snapshot, targetIdentifier);
+        Optional<Column> targetColumn = table.flatMap(t -> t.getColumn(targetEventField));
+        Datapoints rows = Datapoints.EMPTY;
+        if (targetColumn.isPresent()) {
+            Column column = targetColumn.get();
+            // Update targetField type
+            targetCol.put(
+                    "type", getColumnType(column.getAttribute().getContentType().getIdentifier()));
+
+            EventTable events = table.get();
+            rows =
+                    Datapoints.ofRows(
+                            events,
+                            column,
+                            events.select(target.getRangeMode(), query.getFrom(), query.getTo()));
+        }
+        if (frames) {
+            JsonObject valueField = new JsonObject();
+            valueField.put("name", targetEventField);
+            valueField.put("type", targetCol.getString("type"));
+            return new FrameProducer(
+                    targetIdentifier,
+                    target.getRefId(),
+                    valueField,
+                    rows,
+                    query.isDeltaTimestamps());
+        }
+        return new TableProducer(columns, rows);
     }
 
-    public void applyFilterEvents(
-            String targetIdentifier, long from, long to, ArgRunnable<IItemCollection> runnable) {
-        runnable.run(filterEvents(targetIdentifier, from, to));
+    /** A data frame of a table without a time column, with one field per column. */
+    private static JsonObject toFrame(JsonObject table, Target target) {
+        JsonArray fields = new JsonArray();
+        JsonArray values = new JsonArray();
+        JsonArray columns = table.getJsonArray("columns");
+        JsonArray rows = table.getJsonArray("rows");
+        for (int i = 0; i < columns.size(); i++) {
+            JsonObject column = columns.getJsonObject(i);
+            fields.add(
+                    new JsonObject()
+                            .put("name", column.getString("text"))
+                            .put("type", column.getString("type")));
+            JsonArray columnValues = new JsonArray();
+            for (int j = 0; j < rows.size(); j++) {
+                columnValues.add(rows.getJsonArray(j).getValue(i));
+            }
+            values.add(columnValues);
+        }
+        JsonObject schema = new JsonObject();
+        schema.put("name", target.getTargetIdentifier());
+        target.getRefId().ifPresent(id -> schema.put("refId", id));
+        schema.put("fields", fields);
+        return new JsonObject()
+                .put("schema", schema)
+                .put("data", new JsonObject().put("values", values));
     }
 
-    public IItemCollection filterEvents(String targetIdentifier, long from, long to) {
-        String eventName = targetIdentifier.substring(0, targetIdentifier.lastIndexOf("."));
-        IQuantity start = UnitLookup.EPOCH_MS.quantity(from);
-        IQuantity end = UnitLookup.EPOCH_MS.quantity(to);
-        IRange<IQuantity> range = QuantityRange.createWithEnd(start, end);
-        IItemCollection filteredEvents =
-                this.events.apply(
-                        ItemFilters.and(
-                                ItemFilters.type(eventName),
-                                ItemFilters.rangeContainedIn(JfrAttributes.LIFETIME, range)));
-        return filteredEvents;
-    }
-
-    public IItemCollection filterEvents(String targetIdentifier) {
-        String eventName = targetIdentifier.substring(0, targetIdentifier.lastIndexOf("."));
-        IItemCollection filteredEvents = this.events.apply(ItemFilters.type(eventName));
-        return filteredEvents;
+    /**
+     * Exports the given fields of the events of a type which start within {@code [from, to]}, in
+     * epoch milliseconds. All fields are exported if none are given, and the range defaults to the
+     * whole recording.
+     *
+     * @return empty if there is no recording loaded, or it has no events of the type
+     * @throws InvalidQueryException if a field is not a field of the type
+     */
+    public Optional<ArrowProducer> export(
+            String type, List<String> fields, Optional<Long> from, Optional<Long> to)
+            throws InvalidQueryException {
+        RecordingSnapshot snapshot = this.snapshot.get();
+        Optional<EventTable> table = snapshot.getStore().getTable(type);
+        if (snapshot.isEmpty() || table.isEmpty()) {
+            return Optional.empty();
+        }
+        EventTable events = table.get();
+        if (fields.isEmpty()) {
+            fields = EventExport.getDefaultFields(events);
+        }
+        for (String field : fields) {
+            if (!field.equals(EventExport.START_TIME_FIELD)
+                    && !field.equals(EventExport.END_TIME_FIELD)
+                    && events.getColumn(field).isEmpty()) {
+                throw new InvalidQueryException("fields");
+            }
+        }
+        int first = from.map(events::firstStartingAtOrAfterMillis).orElse(0);
+        int end = to.map(events::firstStartingAfterMillis).orElse(events.size());
+        return Optional.of(new EventExport(events, fields, first, end));
     }
 
-    public JsonObject createEmptyTargetJson(String identifier, Optional<String> paramField) {
-        JsonObject jsonObject = new JsonObject();
-        jsonObject.put("target", identifier);
-        jsonObject.put("datapoints", new JsonArray());
-        jsonObject.put("meta", new JsonObject());
-
-        if (paramField.isPresent()) {
-            jsonObject.getJsonObject("meta").put("paramField", paramField.get());
-        }
-        return jsonObject;
+    private Optional<EventTable> findTable(RecordingSnapshot snapshot, String targetIdentifier) {
+        String eventName = targetIdentifier.substring(0, targetIdentifier.lastIndexOf("."));
+        return snapshot.getStore().getTable(eventName);
     }
 
     public String annotations() {
-        if (events == null) {
+        if (!eventsLoaded()) {
             return JsonUtils.EMPTY_ARRAY;
         }
         // TODO: Implement annotation support
@@ -547,20 +708,6 @@ public class RecordingService {
         return JsonUtils.EMPTY_ARRAY;
     }
 
-    public IUnit displayUnit(IUnit originalUnit) {
-        String unitIdentifier = originalUnit.getContentType().getIdentifier();
-        switch (unitIdentifier) {
-            case "memory":
-                return UnitLookup.BYTE;
-            case "timespan":
-                return UnitLookup.MILLISECOND;
-            case "frequency":
-                return UnitLookup.HERTZ;
-            default:
-                return originalUnit;
-        }
-    }
-
     public String getColumnType(String unitIdentifier) {
         switch (unitIdentifier) {
             case "memory":
@@ -573,19 +720,118 @@ public class RecordingService {
     }
 
     public void loadEvents(String filename) throws IOException {
+        LoadProgress load = loadEventsAsync(filename);
+        try {
+            load.getCompletion().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            load.cancel();
+            throw new IOException("Interrupted while loading JFR recording", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to load JFR recording", e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("Loading of " + load.getFileName() + " was cancelled", e);
+        }
+    }
+
+    /**
+     * Starts loading the given file in the background. The previously loaded events remain
+     * queryable until the load completes. Any load which is still running is cancelled.
+     */
+    public LoadProgress loadEventsAsync(String filename) throws IOException {
         if (filename == null || filename == "") {
             throw new IOException("Invalid JFR filename");
         }
+        File file = new File(filename);
+        if (!file.exists() || !file.isFile()) {
+            throw new IOException("File not found");
+        }
+
+        LoadProgress load = new LoadProgress(file.getName());
+        synchronized (loads) {
+            if (currentLoad != null && currentLoad.cancel()) {
+                LOGGER.info("Cancelled loading of " + currentLoad.getFileName());
+            }
+            currentLoad = load;
+            loads.put(load.getId(), load);
+            // Queued while still holding the lock, so that the load it cancelled cannot be queued
+            // after it and push it out of the queue
+            loadExecutor.execute(() -> runLoad(file, load));
+        }
+        return load;
+    }
+
+    public Optional<LoadProgress> getLoadProgress(String id) {
+        synchronized (loads) {
+            return Optional.ofNullable(id == null ? currentLoad : loads.get(id));
+        }
+    }
+
+    private void runLoad(File file, LoadProgress load) {
+        if (load.isCancelled()) {
+            return;
+        }
         try {
-            File file = new File(filename);
-            if (!file.exists() || !file.isFile()) {
-                throw new IOException("File not found");
+            String contentHash = loader.contentHash(file);
+            Optional<RecordingSnapshot> cached = cache.get(file.getName(), contentHash);
+            if (cached.isPresent()) {
+                LOGGER.info("Using cached events for " + file.getName());
+                load.startFromCache(file.length());
+                swap(cached.get(), load);
+                return;
             }
+
             LOGGER.info("Loading file: " + file.getAbsolutePath());
-            this.events = JfrLoaderToolkit.loadEvents(file);
+            long start = System.nanoTime();
+            IItemCollection loaded = loader.load(file, load);
+            if (load.isCancelled()) {
+                throw new CancellationException();
+            }
+            EventStore store =
+                    EventStore.build(
+                            loaded,
+                            columnar,
+                            rollupFields.orElse(Collections.emptySet()),
+                            loader.getExecutor());
+            RecordingSnapshot loadedSnapshot =
+                    new RecordingSnapshot(
+                            VERSIONS.incrementAndGet(),
+                            file.getName(),
+                            contentHash,
+                            file.length(),
+                            Instant.now(),
+                            loaded,
+                            store);
+            LOGGER.info(
+                    "Loaded "
+                            + file.getName()
+                            + " in "
+                            + (System.nanoTime() - start) / 1_000_000
+                            + "ms");
+            if (swap(loadedSnapshot, load)) {
+                cache.put(loadedSnapshot);
+            }
+        } catch (CancellationException e) {
+            LOGGER.info("Loading of " + file.getName() + " was cancelled");
         } catch (CouldNotLoadRecordingException e) {
             LOGGER.error("Failed to read events from recording", e);
-            throw new IOException("Failed to load JFR recording", e);
+            load.fail(new IOException("Failed to load JFR recording", e));
+        } catch (Exception e) {
+            LOGGER.error("Failed to read events from recording", e);
+            load.fail(e);
+        }
+    }
+
+    private boolean swap(RecordingSnapshot loaded, LoadProgress load) {
+        synchronized (loads) {
+            if (load.isCancelled()) {
+                return false;
+            }
+            this.snapshot.set(loaded);
+            resultCache.clear();
+            flights.clear();
+            load.complete();
+            return true;
         }
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.time.Instant;
+
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.ItemCollectionToolkit;
+
+import io.cryostat.jfr.datasource.index.EventStore;
+
+/**
+ * Immutable view of a loaded recording. Queries capture the current snapshot once and work on it
+ * for their whole duration, so a concurrent load never exposes a half-updated state.
+ */
+public class RecordingSnapshot {
+
+    static final RecordingSnapshot EMPTY =
+            new RecordingSnapshot(
+                    0, "", "", 0, Instant.EPOCH, ItemCollectionToolkit.EMPTY, EventStore.EMPTY);
+
+    // Rough per-event heap cost of the parsed JMC representation: the item itself plus a boxed
+    // member value per attribute
+    private static final long ESTIMATED_ITEM_OVERHEAD = 32;
+    private static final long ESTIMATED_ATTRIBUTE_SIZE = 24;
+
+    private final long version;
+    private final String fileName;
+    private final String contentHash;
+    private final long fileSize;
+    private final Instant loadedAt;
+    private final IItemCollection events;
+    private final EventStore store;
+    private final long estimatedSize;
+
+    RecordingSnapshot(
+            long version,
+            String fileName,
+            String contentHash,
+            long fileSize,
+            Instant loadedAt,
+            IItemCollection events,
+            EventStore store) {
+        this.version = version;
+        this.fileName = fileName;
+        this.contentHash = contentHash;
+        this.fileSize = fileSize;
+        this.loadedAt = loadedAt;
+        this.events = events;
+        this.store = store;
+        this.estimatedSize = estimateSize(events) + store.getEstimatedSize();
+    }
+
+    private static long estimateSize(IItemCollection events) {
+        long size = 0;
+        for (IItemIterable itemIterable : events) {
+            int attributes = itemIterable.getType().getAttributes().size();
+            size +=
+                    itemIterable.getItemCount()
+                            * (ESTIMATED_ITEM_OVERHEAD + attributes * ESTIMATED_ATTRIBUTE_SIZE);
+        }
+        return size;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public Instant getLoadedAt() {
+        return loadedAt;
+    }
+
+    public IItemCollection getEvents() {
+        return events;
+    }
+
+    /** The events laid out per type for scanning by queries. */
+    public EventStore getStore() {
+        return store;
+    }
+
+    /** Approximate number of heap bytes retained by this snapshot. */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    public boolean isEmpty() {
+        return this == EMPTY;
+    }
+}
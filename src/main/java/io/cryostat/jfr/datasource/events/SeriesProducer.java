@@ -0,0 +1,88 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.Optional;
+
+import io.cryostat.jfr.datasource.json.JsonProducer;
+import io.cryostat.jfr.datasource.json.JsonWriter;
+
+/** Writes one timeseries of a query response, a slice of its datapoints at a time. */
+class SeriesProducer implements JsonProducer {
+
+    private static final int SLICE = 1024;
+
+    private final String target;
+    private final Optional<String> paramField;
+    private final Datapoints datapoints;
+    private int next = -1;
+
+    SeriesProducer(String target, Optional<String> paramField, Datapoints datapoints) {
+        this.target = target;
+        this.paramField = paramField;
+        this.datapoints = datapoints;
+    }
+
+    @Override
+    public boolean produce(JsonWriter writer) {
+        if (next < 0) {
+            writer.beginObject();
+            writer.name("target").value(target);
+            writer.name("datapoints").beginArray();
+            next = 0;
+        }
+        int end = Math.min(next + SLICE, datapoints.size());
+        for (; next < end; next++) {
+            writer.beginArray(); // [y, x]
+            datapoints.writeValue(writer, next);
+            writer.value(datapoints.getTime(next));
+            writer.endArray();
+        }
+        if (next < datapoints.size()) {
+            return true;
+        }
+        writer.endArray();
+        writer.name("meta").beginObject();
+        if (paramField.isPresent()) {
+            writer.name("paramField").value(paramField.get());
+        }
+        writer.endObject();
+        writer.endObject();
+        return false;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Optional;
+
+/**
+ * Reduces the values of a column to one value per fixed time bucket. Buckets are aligned to
+ * multiples of the interval since the epoch, and empty buckets are skipped.
+ */
+public enum Aggregation {
+    AVG("avg"),
+    MIN("min"),
+    MAX("max"),
+    SUM("sum"),
+    COUNT("count"),
+    /** Sum of the bucket per second of its interval. */
+    RATE("rate"),
+    P50("p50", 0.5),
+    P90("p90", 0.9),
+    P95("p95", 0.95),
+    P99("p99", 0.99);
+
+    private final String identifier;
+    // NaN unless this is a percentile
+    private final double quantile;
+
+    Aggregation(String identifier) {
+        this(identifier, Double.NaN);
+    }
+
+    Aggregation(String identifier, double quantile) {
+        this.identifier = identifier;
+        this.quantile = quantile;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public static Optional<Aggregation> fromIdentifier(String identifier) {
+        for (Aggregation aggregation : values()) {
+            if (aggregation.identifier.equals(identifier)) {
+                return Optional.of(aggregation);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /** Receives the result of each bucket, in order of time. */
+    @FunctionalInterface
+    public interface BucketConsumer {
+        /**
+         * @param value the aggregate, or {@code NaN} if no event of the bucket had a value
+         */
+        void accept(long bucketStart, double value);
+    }
+
+    /**
+     * Aggregates the given rows in a single pass with primitive accumulators. {@link #COUNT} counts
+     * every row, the other aggregations only rows with a value. Runs of rows covering a whole
+     * bucket of a {@link Rollup} are taken from the rollup without visiting them, and the bucket
+     * holding the next row is found by binary search, so a range of rows is aggregated in time
+     * logarithmic in its length for each rollup bucket it spans. Percentiles are
+     * estimated from {@link QuantileSketch}es, within {@link QuantileSketch#RELATIVE_ACCURACY} of
+     * the exact value.
+     *
+     * @param rows rows in order of their start time
+     * @param interval bucket width in nanoseconds
+     */
+    public void apply(
+            EventTable table, Column column, RowSet rows, long interval, BucketConsumer consumer) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        if (!Double.isNaN(quantile)) {
+            applyQuantile(table, column, rows, interval, consumer);
+            return;
+        }
+        Rollup rollup = table.getRollup(column, interval);
+        // Only moves forward, as rows are in ascending order
+        int rollupBucket = 0;
+        int rollupEnd = rollup == null || rollup.size() == 0 ? 0 : rollup.getEndRow(0);
+        long bucketStart = Long.MIN_VALUE;
+        long count = 0;
+        long valued = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        int i = 0;
+        while (i < rows.size()) {
+            int row = rows.get(i);
+            long start = Math.floorDiv(table.getStartTime(row), interval) * interval;
+            if (start != bucketStart) {
+                if (count > 0) {
+                    consumer.accept(bucketStart, result(count, valued, sum, min, max, interval));
+                }
+                bucketStart = start;
+                count = 0;
+                valued = 0;
+                sum = 0;
+                min = Double.POSITIVE_INFINITY;
+                max = Double.NEGATIVE_INFINITY;
+            }
+            if (rollup != null) {
+                if (row >= rollupEnd) {
+                    rollupBucket = rollup.bucketOf(row, rollupBucket + 1);
+                    rollupEnd = rollup.getEndRow(rollupBucket);
+                }
+                int first = rollup.getFirstRow(rollupBucket);
+                int n = rollupEnd - first;
+                if (row == first && rows.isContiguous(i, n)) {
+                    count += n;
+                    valued += rollup.getValued(rollupBucket);
+                    sum += rollup.getSum(rollupBucket);
+                    min = Math.min(rollup.getMin(rollupBucket), min);
+                    max = Math.max(rollup.getMax(rollupBucket), max);
+                    i += n;
+                    continue;
+                }
+            }
+            count++;
+            i++;
+            if (this == COUNT) {
+                continue;
+            }
+            double value = column.getDouble(row);
+            if (!Double.isNaN(value)) {
+                valued++;
+                sum += value;
+                min = Math.min(value, min);
+                max = Math.max(value, max);
+            }
+        }
+        if (count > 0) {
+            consumer.accept(bucketStart, result(count, valued, sum, min, max, interval));
+        }
+    }
+
+    /**
+     * Intervals which are a multiple of {@link QuantileSketches#BASE_INTERVAL} merge the cached
+     * sketch of every base bucket whose rows were all selected, and skip over its rows without
+     * visiting them. Only the rows of partially selected base buckets are added one by one.
+     */
+    private void applyQuantile(
+            EventTable table, Column column, RowSet rows, long interval, BucketConsumer consumer) {
+        QuantileSketches cached =
+                interval % QuantileSketches.BASE_INTERVAL == 0 ? table.getSketches(column) : null;
+        long bucketStart = Long.MIN_VALUE;
+        QuantileSketch sketch = null;
+        int i = 0;
+        while (i < rows.size()) {
+            long startTime = table.getStartTime(rows.get(i));
+            long start = Math.floorDiv(startTime, interval) * interval;
+            if (start != bucketStart) {
+                if (sketch != null) {
+                    consumer.accept(bucketStart, sketch.getQuantile(quantile));
+                }
+                bucketStart = start;
+                sketch = new QuantileSketch();
+            }
+            if (cached == null) {
+                sketch.add(column.getDouble(rows.get(i++)));
+                continue;
+            }
+            long baseStart = QuantileSketches.bucketStart(startTime);
+            int base = cached.indexOf(baseStart);
+            if (base >= 0
+                    && rows.get(i) == cached.getFirstRow(base)
+                    && rows.isContiguous(i, cached.getRowCount(base))) {
+                sketch.merge(cached.getSketch(base));
+                i += cached.getRowCount(base);
+                continue;
+            }
+            // Only part of the base bucket is selected
+            do {
+                sketch.add(column.getDouble(rows.get(i++)));
+            } while (i < rows.size()
+                    && QuantileSketches.bucketStart(table.getStartTime(rows.get(i))) == baseStart);
+        }
+        if (sketch != null) {
+            consumer.accept(bucketStart, sketch.getQuantile(quantile));
+        }
+    }
+
+    private double result(
+            long count, long valued, double sum, double min, double max, long interval) {
+        switch (this) {
+            case COUNT:
+                return count;
+            case SUM:
+                return sum;
+            case RATE:
+                return sum / ((double) interval / 1_000_000_000L);
+            case AVG:
+                return valued == 0 ? Double.NaN : sum / valued;
+            case MIN:
+                return valued == 0 ? Double.NaN : min;
+            case MAX:
+                return valued == 0 ? Double.NaN : max;
+            default:
+                throw new IllegalStateException(name());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openjdk.jmc.common.item.IAttribute;
+
+/** Values of one attribute for every event of an {@link EventTable}, addressed by row. */
+public abstract class Column {
+
+    protected final IAttribute<?> attribute;
+    private volatile DistinctValues distinctValues;
+
+    protected Column(IAttribute<?> attribute) {
+        this.attribute = attribute;
+    }
+
+    public IAttribute<?> getAttribute() {
+        return attribute;
+    }
+
+    /** Whether the values of this column are quantities reported as display unit doubles. */
+    public abstract boolean isNumeric();
+
+    /** The value of the given row in display units, or {@code NaN} if there is none. */
+    public abstract double getDouble(int row);
+
+    /** The string form of the value of the given row, or {@code null} if there is none. */
+    public abstract String getString(int row);
+
+    /** Approximate number of heap bytes retained by this column. */
+    public abstract long getEstimatedSize();
+
+    /** Distinct values of this column, counted the first time they are asked for. */
+    public DistinctValues getDistinctValues() {
+        DistinctValues values = distinctValues;
+        if (values == null) {
+            synchronized (this) {
+                values = distinctValues;
+                if (values == null) {
+                    values = countDistinctValues();
+                    distinctValues = values;
+                }
+            }
+        }
+        return values;
+    }
+
+    protected DistinctValues countDistinctValues() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (int row = 0; row < size(); row++) {
+            String value = getString(row);
+            if (value != null) {
+                counts.merge(value, 1, Integer::sum);
+            }
+        }
+        return new DistinctValues(
+                counts.keySet().toArray(new String[0]),
+                counts.values().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /** Number of rows of this column. */
+    protected abstract int size();
+}
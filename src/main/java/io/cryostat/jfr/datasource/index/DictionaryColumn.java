@@ -0,0 +1,98 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import org.openjdk.jmc.common.item.IAttribute;
+
+/** String forms of values, stored as codes into a dictionary of the distinct strings. */
+class DictionaryColumn extends Column {
+
+    static final int NULL_CODE = -1;
+
+    private final int[] codes;
+    private final String[] dictionary;
+
+    DictionaryColumn(IAttribute<?> attribute, int[] codes, String[] dictionary) {
+        super(attribute);
+        this.codes = codes;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public boolean isNumeric() {
+        return false;
+    }
+
+    @Override
+    public double getDouble(int row) {
+        return Double.NaN;
+    }
+
+    @Override
+    public String getString(int row) {
+        int code = codes[row];
+        return code == NULL_CODE ? null : dictionary[code];
+    }
+
+    @Override
+    protected int size() {
+        return codes.length;
+    }
+
+    @Override
+    protected DistinctValues countDistinctValues() {
+        // Dictionary codes are assigned in order of first appearance
+        int[] counts = new int[dictionary.length];
+        for (int code : codes) {
+            if (code != NULL_CODE) {
+                counts[code]++;
+            }
+        }
+        return new DistinctValues(dictionary, counts);
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        long size = (long) codes.length * Integer.BYTES;
+        for (String value : dictionary) {
+            // object header, hash, reference and the backing array
+            size += 40 + value.length();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The distinct string values of a column with the number of rows holding each, ordered from the
+ * most to the least frequent. Values of equal frequency keep the order they first appear in.
+ */
+public class DistinctValues {
+
+    private final String[] values;
+    private final int[] counts;
+
+    /**
+     * @param values distinct values in order of first appearance
+     */
+    DistinctValues(String[] values, int[] counts) {
+        Integer[] order = new Integer[values.length];
+        Arrays.setAll(order, i -> i);
+        // Arrays.sort on objects is stable
+        Arrays.sort(order, Comparator.comparingInt(i -> -counts[i]));
+        this.values = new String[values.length];
+        this.counts = new int[values.length];
+        for (int i = 0; i < order.length; i++) {
+            this.values[i] = values[order[i]];
+            this.counts[i] = counts[order[i]];
+        }
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public String getValue(int rank) {
+        return values[rank];
+    }
+
+    public int getCount(int rank) {
+        return counts[rank];
+    }
+
+    /** The most frequent values starting with the given prefix, up to {@code limit} of them. */
+    public List<String> find(String prefix, int limit) {
+        List<String> found = new ArrayList<>();
+        for (int i = 0; i < values.length && found.size() < limit; i++) {
+            if (values[i].startsWith(prefix)) {
+                found.add(values[i]);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Reduces the rows of a numeric timeseries to at most a given number of points, keeping the rows in
+ * order. The start time of a row is its x value and the column value its y value.
+ */
+public enum Downsampling {
+    /** Every row is kept. */
+    NONE("none") {
+        @Override
+        int[] select(EventTable table, Column column, int[] rows, int maxPoints, long interval) {
+            return rows;
+        }
+    },
+    /**
+     * Largest-Triangle-Three-Buckets: one row per bucket, chosen to form the largest triangle with
+     * the row kept from the previous bucket and the average of the next bucket. Keeps the visual
+     * shape of the series.
+     */
+    LTTB("lttb") {
+        @Override
+        int[] select(EventTable table, Column column, int[] rows, int maxPoints, long interval) {
+            int n = rows.length;
+            if (maxPoints < 3) {
+                return new int[] {rows[0], rows[n - 1]};
+            }
+            long origin = table.getStartTime(rows[0]);
+            int[] sampled = new int[maxPoints];
+            int count = 0;
+            sampled[count++] = rows[0];
+            double bucketSize = (double) (n - 2) / (maxPoints - 2);
+            int previous = 0;
+            for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+                int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+                int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, n);
+                double averageX = 0;
+                double averageY = 0;
+                for (int i = nextStart; i < nextEnd; i++) {
+                    averageX += table.getStartTime(rows[i]) - origin;
+                    averageY += column.getDouble(rows[i]);
+                }
+                averageX /= nextEnd - nextStart;
+                averageY /= nextEnd - nextStart;
+
+                double previousX = table.getStartTime(rows[previous]) - origin;
+                double previousY = column.getDouble(rows[previous]);
+                int start = (int) (bucket * bucketSize) + 1;
+                int end = nextStart;
+                double maxArea = -1;
+                int selected = start;
+                for (int i = start; i < end; i++) {
+                    double x = table.getStartTime(rows[i]) - origin;
+                    double y = column.getDouble(rows[i]);
+                    double area =
+                            Math.abs(
+                                    (previousX - averageX) * (y - previousY)
+                                            - (previousX - x) * (averageY - previousY));
+                    if (area > maxArea) {
+                        maxArea = area;
+                        selected = i;
+                    }
+                }
+                sampled[count++] = rows[selected];
+                previous = selected;
+            }
+            sampled[count++] = rows[n - 1];
+            return sampled;
+        }
+    },
+    /**
+     * Splits the time range into buckets no narrower than the query interval and keeps the rows
+     * with the smallest and largest value of each, so spikes are never dropped.
+     */
+    MINMAX("minmax") {
+        @Override
+        int[] select(EventTable table, Column column, int[] rows, int maxPoints, long interval) {
+            int buckets = Math.max(maxPoints / 2, 1);
+            long origin = table.getStartTime(rows[0]);
+            long span = table.getStartTime(rows[rows.length - 1]) - origin + 1;
+            long width = Math.max(Math.max(interval, 1), (span + buckets - 1) / buckets);
+            int[] sampled = new int[Math.max(maxPoints, 2)];
+            int count = 0;
+            int i = 0;
+            while (i < rows.length) {
+                long bucketEnd =
+                        origin + ((table.getStartTime(rows[i]) - origin) / width + 1) * width;
+                int min = i;
+                int max = i;
+                for (; i < rows.length && table.getStartTime(rows[i]) < bucketEnd; i++) {
+                    double value = column.getDouble(rows[i]);
+                    if (value < column.getDouble(rows[min])) {
+                        min = i;
+                    }
+                    if (value > column.getDouble(rows[max])) {
+                        max = i;
+                    }
+                }
+                sampled[count++] = rows[Math.min(min, max)];
+                if (min != max) {
+                    sampled[count++] = rows[Math.max(min, max)];
+                }
+            }
+            return Arrays.copyOf(sampled, count);
+        }
+    };
+
+    private final String identifier;
+
+    Downsampling(String identifier) {
+        this.identifier = identifier;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public static Optional<Downsampling> fromIdentifier(String identifier) {
+        for (Downsampling downsampling : values()) {
+            if (downsampling.identifier.equals(identifier)) {
+                return Optional.of(downsampling);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Selects at most {@code maxPoints} of the given rows of a numeric column. Rows without a value
+     * are dropped once the series has to be reduced.
+     *
+     * @param rows rows in order of their start time
+     * @param interval minimum time between points in nanoseconds, or 0
+     */
+    public RowSet apply(
+            EventTable table, Column column, RowSet rows, int maxPoints, long interval) {
+        if (this == NONE || rows.size() <= maxPoints || !column.isNumeric()) {
+            return rows;
+        }
+        int[] valued = new int[rows.size()];
+        int count = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            if (!Double.isNaN(column.getDouble(row))) {
+                valued[count++] = row;
+            }
+        }
+        valued = Arrays.copyOf(valued, count);
+        if (valued.length <= maxPoints || valued.length == 0) {
+            return RowSet.of(valued);
+        } else if (maxPoints < 2) {
+            return RowSet.of(Arrays.copyOf(valued, Math.max(maxPoints, 0)));
+        }
+        return RowSet.of(select(table, column, valued, maxPoints, interval));
+    }
+
+    abstract int[] select(
+            EventTable table, Column column, int[] rows, int maxPoints, long interval);
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+
+/** The events of a recording as one {@link EventTable} per event type. */
+public class EventStore {
+
+    public static final EventStore EMPTY = new EventStore(Collections.emptyMap());
+
+    private final Map<String, EventTable> tables;
+    private final RecordingMetadata metadata;
+    private final SearchCatalog catalog;
+
+    private EventStore(Map<String, EventTable> tables) {
+        this.tables = tables;
+        this.metadata = new RecordingMetadata(tables.values());
+        this.catalog = SearchCatalog.of(tables.values());
+    }
+
+    /**
+     * Builds the tables of all event types in the given collection, one task per type.
+     *
+     * @param materializeColumns whether attribute values are copied into column arrays, or read
+     *     from the JMC items on demand
+     * @param rollupFields numeric fields which get rollups, as {@code eventType.field} or {@code
+     *     eventType.*} for every numeric field of a type
+     */
+    public static EventStore build(
+            IItemCollection events,
+            boolean materializeColumns,
+            Collection<String> rollupFields,
+            ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        Map<String, List<IItemIterable>> iterablesByType = new LinkedHashMap<>();
+        for (IItemIterable itemIterable : events) {
+            if (itemIterable.hasItems()) {
+                iterablesByType
+                        .computeIfAbsent(
+                                itemIterable.getType().getIdentifier(), k -> new ArrayList<>())
+                        .add(itemIterable);
+            }
+        }
+
+        List<Callable<EventTable>> tasks = new ArrayList<>();
+        iterablesByType.forEach(
+                (typeIdentifier, iterables) ->
+                        tasks.add(
+                                () ->
+                                        EventTable.build(
+                                                typeIdentifier,
+                                                iterables,
+                                                materializeColumns,
+                                                rollupFieldsOf(typeIdentifier, rollupFields))));
+
+        Map<String, EventTable> tables = new LinkedHashMap<>();
+        for (Future<EventTable> future : executor.invokeAll(tasks)) {
+            EventTable table = future.get();
+            tables.put(table.getTypeIdentifier(), table);
+        }
+        return new EventStore(tables);
+    }
+
+    private static Predicate<String> rollupFieldsOf(
+            String typeIdentifier, Collection<String> rollupFields) {
+        if (rollupFields.contains(typeIdentifier + ".*")) {
+            return field -> true;
+        }
+        return field -> rollupFields.contains(typeIdentifier + "." + field);
+    }
+
+    public Optional<EventTable> getTable(String typeIdentifier) {
+        return Optional.ofNullable(tables.get(typeIdentifier));
+    }
+
+    public Collection<EventTable> getTables() {
+        return Collections.unmodifiableCollection(tables.values());
+    }
+
+    public RecordingMetadata getMetadata() {
+        return metadata;
+    }
+
+    public SearchCatalog getCatalog() {
+        return catalog;
+    }
+
+    /** Approximate number of heap bytes retained by the tables, excluding the JMC items. */
+    public long getEstimatedSize() {
+        long size = 0;
+        for (EventTable table : tables.values()) {
+            size += table.getEstimatedSize();
+        }
+        return size;
+    }
+}
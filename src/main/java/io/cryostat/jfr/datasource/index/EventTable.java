@@ -0,0 +1,506 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.KindOfQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+
+/**
+ * All events of one type laid out as arrays: start and end times in epoch nanoseconds, the JMC
+ * items themselves and, if materialized, one {@link Column} per attribute. Rows are sorted by start
+ * time, so time range lookups are binary searches. Types with a duration also get an {@link
+ * IntervalIndex} for overlap lookups, and selected numeric columns get {@link Rollup}s.
+ */
+public class EventTable {
+
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    private final String typeIdentifier;
+    private final IItem[] items;
+    private final long[] startTimes;
+    private final long[] endTimes;
+    private final Map<String, Column> columns;
+    // null if every event ends when it starts
+    private final IntervalIndex intervals;
+    private final TypeMetadata metadata;
+    private final Map<String, Rollup[]> rollups;
+    // Built the first time percentiles of a column are queried
+    private final Map<String, QuantileSketches> sketches = new ConcurrentHashMap<>();
+
+    private EventTable(
+            String typeIdentifier,
+            IItem[] items,
+            long[] startTimes,
+            long[] endTimes,
+            Map<String, Column> columns,
+            Predicate<String> rollupFields) {
+        this.typeIdentifier = typeIdentifier;
+        this.items = items;
+        this.startTimes = startTimes;
+        this.endTimes = endTimes;
+        this.columns = columns;
+        this.intervals = hasDuration(startTimes, endTimes) ? new IntervalIndex(endTimes) : null;
+        this.metadata = TypeMetadata.of(typeIdentifier, startTimes, endTimes, columns);
+        this.rollups = new HashMap<>();
+        columns.forEach(
+                (identifier, column) -> {
+                    if (column.isNumeric() && rollupFields.test(identifier)) {
+                        rollups.put(identifier, Rollup.build(startTimes, column));
+                    }
+                });
+    }
+
+    public String getTypeIdentifier() {
+        return typeIdentifier;
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    public long getStartTime(int row) {
+        return startTimes[row];
+    }
+
+    public long getEndTime(int row) {
+        return endTimes[row];
+    }
+
+    /** The start time of the given row in epoch milliseconds, rounded like JMC conversions. */
+    public long getStartMillis(int row) {
+        return toEpochMillis(startTimes[row]);
+    }
+
+    public long getEndMillis(int row) {
+        return toEpochMillis(endTimes[row]);
+    }
+
+    public TypeMetadata getMetadata() {
+        return metadata;
+    }
+
+    public Optional<Column> getColumn(String attributeIdentifier) {
+        return Optional.ofNullable(columns.get(attributeIdentifier));
+    }
+
+    public Map<String, Column> getColumns() {
+        return Collections.unmodifiableMap(columns);
+    }
+
+    /**
+     * The coarsest rollup of the given column whose buckets evenly divide the given interval, or
+     * {@code null} if there is none.
+     */
+    Rollup getRollup(Column column, long interval) {
+        Rollup[] levels = rollups.get(column.getAttribute().getIdentifier());
+        if (levels == null) {
+            return null;
+        }
+        for (int i = levels.length - 1; i >= 0; i--) {
+            if (interval % levels[i].getResolution() == 0) {
+                return levels[i];
+            }
+        }
+        return null;
+    }
+
+    QuantileSketches getSketches(Column column) {
+        return sketches.computeIfAbsent(
+                column.getAttribute().getIdentifier(),
+                k -> QuantileSketches.build(this, column));
+    }
+
+    /**
+     * Rows matching the time range {@code [from, to]}, given in epoch milliseconds, in order of
+     * their start time. Rows starting within the range are returned as a range without visiting
+     * them. Only overlap lookups, which use the interval index, and containment lookups on types
+     * with a duration materialize the selected rows.
+     */
+    public RowSet select(RangeMode mode, long from, long to) {
+        long fromNanos = toEpochNanos(from);
+        long toNanos = toEpochNanos(to);
+        int last = firstStartingAfter(toNanos);
+        if (mode == RangeMode.OVERLAPPING && intervals != null) {
+            return RowSet.of(intervals.selectEndingAtOrAfter(last, fromNanos));
+        }
+        int first = firstStartingAtOrAfter(fromNanos);
+        if (mode != RangeMode.CONTAINED || intervals == null) {
+            return RowSet.range(first, last);
+        }
+        int[] rows = new int[Math.max(last - first, 0)];
+        int count = 0;
+        for (int row = first; row < last; row++) {
+            if (endTimes[row] <= toNanos) {
+                rows[count++] = row;
+            }
+        }
+        return RowSet.of(count == rows.length ? rows : Arrays.copyOf(rows, count));
+    }
+
+    /**
+     * Index of the first row starting at or after the given time in epoch milliseconds, or {@link
+     * #size()}. Rows are ordered by start time, so the rows starting within a range are those from
+     * this index up to {@link #firstStartingAfterMillis(long)} of its end.
+     */
+    public int firstStartingAtOrAfterMillis(long epochMillis) {
+        return firstStartingAtOrAfter(toEpochNanos(epochMillis));
+    }
+
+    /**
+     * Index of the first row starting after the given time in epoch milliseconds, or {@link
+     * #size()}.
+     */
+    public int firstStartingAfterMillis(long epochMillis) {
+        return firstStartingAfter(toEpochNanos(epochMillis));
+    }
+
+    /** Index of the first row starting at or after the given time, or {@link #size()}. */
+    int firstStartingAtOrAfter(long epochNanos) {
+        int low = 0;
+        int high = startTimes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startTimes[mid] < epochNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Index of the first row starting after the given time, or {@link #size()}. */
+    int firstStartingAfter(long epochNanos) {
+        int low = 0;
+        int high = startTimes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startTimes[mid] <= epochNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public long getEstimatedSize() {
+        long size = (long) items.length * (Long.BYTES * 2 + 8);
+        if (intervals != null) {
+            size += intervals.getEstimatedSize();
+        }
+        for (Column column : columns.values()) {
+            size += column.getEstimatedSize();
+        }
+        for (Rollup[] levels : rollups.values()) {
+            for (Rollup rollup : levels) {
+                size += rollup.getEstimatedSize();
+            }
+        }
+        return size;
+    }
+
+    private static boolean hasDuration(long[] startTimes, long[] endTimes) {
+        for (int row = 0; row < startTimes.length; row++) {
+            if (endTimes[row] != startTimes[row]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static long toEpochMillis(long epochNanos) {
+        return Math.floorDiv(epochNanos + NANOS_PER_MILLI / 2, NANOS_PER_MILLI);
+    }
+
+    static long toEpochNanos(long epochMillis) {
+        if (epochMillis > Long.MAX_VALUE / NANOS_PER_MILLI) {
+            return Long.MAX_VALUE;
+        } else if (epochMillis < Long.MIN_VALUE / NANOS_PER_MILLI) {
+            return Long.MIN_VALUE;
+        }
+        return epochMillis * NANOS_PER_MILLI;
+    }
+
+    /**
+     * A table of rows without their JMC items, which only answers lookups by time and column.
+     *
+     * @param startTimes start times in ascending order
+     */
+    static EventTable of(
+            String typeIdentifier,
+            long[] startTimes,
+            long[] endTimes,
+            Map<String, Column> columns,
+            Predicate<String> rollupFields) {
+        return new EventTable(
+                typeIdentifier,
+                new IItem[startTimes.length],
+                startTimes,
+                endTimes,
+                columns,
+                rollupFields);
+    }
+
+    /**
+     * @param rollupFields selects the attributes which get a {@link Rollup}, if numeric
+     */
+    static EventTable build(
+            String typeIdentifier,
+            List<IItemIterable> iterables,
+            boolean materializeColumns,
+            Predicate<String> rollupFields) {
+        long count = 0;
+        for (IItemIterable itemIterable : iterables) {
+            count += itemIterable.getItemCount();
+        }
+        IItem[] items = new IItem[Math.toIntExact(count)];
+        long[] startTimes = new long[items.length];
+        long[] endTimes = new long[items.length];
+        // Index into types for every row, needed to look up member accessors
+        int[] rowTypes = new int[items.length];
+        List<IType<IItem>> types = new ArrayList<>();
+        Map<String, IAttribute<?>> attributes = new LinkedHashMap<>();
+
+        int row = 0;
+        for (IItemIterable itemIterable : iterables) {
+            IType<IItem> type = itemIterable.getType();
+            int typeIndex = types.indexOf(type);
+            if (typeIndex < 0) {
+                typeIndex = types.size();
+                types.add(type);
+            }
+            for (IAttribute<?> attribute : type.getAttributes()) {
+                attributes.putIfAbsent(attribute.getIdentifier(), attribute);
+            }
+            IMemberAccessor<IQuantity, IItem> startTimeAccessor =
+                    JfrAttributes.START_TIME.getAccessor(type);
+            IMemberAccessor<IQuantity, IItem> endTimeAccessor =
+                    JfrAttributes.END_TIME.getAccessor(type);
+            for (IItem item : itemIterable) {
+                if (row == items.length) {
+                    int capacity = Math.max(16, items.length * 2);
+                    items = Arrays.copyOf(items, capacity);
+                    startTimes = Arrays.copyOf(startTimes, capacity);
+                    endTimes = Arrays.copyOf(endTimes, capacity);
+                    rowTypes = Arrays.copyOf(rowTypes, capacity);
+                }
+                items[row] = item;
+                startTimes[row] = epochNanos(startTimeAccessor, item, Long.MIN_VALUE);
+                endTimes[row] = epochNanos(endTimeAccessor, item, startTimes[row]);
+                rowTypes[row] = typeIndex;
+                row++;
+            }
+        }
+        if (row != items.length) {
+            items = Arrays.copyOf(items, row);
+            startTimes = Arrays.copyOf(startTimes, row);
+            endTimes = Arrays.copyOf(endTimes, row);
+            rowTypes = Arrays.copyOf(rowTypes, row);
+        }
+
+        int[] order = sortByStartTime(startTimes);
+        if (order != null) {
+            IItem[] sortedItems = new IItem[items.length];
+            long[] sortedStartTimes = new long[items.length];
+            long[] sortedEndTimes = new long[items.length];
+            int[] sortedRowTypes = new int[items.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedItems[i] = items[order[i]];
+                sortedStartTimes[i] = startTimes[order[i]];
+                sortedEndTimes[i] = endTimes[order[i]];
+                sortedRowTypes[i] = rowTypes[order[i]];
+            }
+            items = sortedItems;
+            startTimes = sortedStartTimes;
+            endTimes = sortedEndTimes;
+            rowTypes = sortedRowTypes;
+        }
+
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (IAttribute<?> attribute : attributes.values()) {
+            Column column = null;
+            if (materializeColumns) {
+                List<IMemberAccessor<?, IItem>> accessors = new ArrayList<>();
+                for (IType<IItem> type : types) {
+                    accessors.add(attribute.getAccessor(type));
+                }
+                column = buildQuantityColumn(attribute, items, rowTypes, accessors);
+                if (column == null) {
+                    column = buildDictionaryColumn(attribute, items, rowTypes, accessors);
+                }
+            } else {
+                column = new ItemColumn(attribute, items);
+            }
+            columns.put(attribute.getIdentifier(), column);
+        }
+        return new EventTable(
+                typeIdentifier, items, startTimes, endTimes, columns, rollupFields);
+    }
+
+    /**
+     * Stable sort of the row indices by start time. Events of one chunk are mostly written in
+     * order, so this returns {@code null} without allocating when the rows are already sorted.
+     */
+    static int[] sortByStartTime(long[] startTimes) {
+        int n = startTimes.length;
+        int i = 1;
+        while (i < n && startTimes[i - 1] <= startTimes[i]) {
+            i++;
+        }
+        if (i >= n) {
+            return null;
+        }
+        // Bottom-up merge sort, starting from the runs that are already in order
+        int[] order = new int[n];
+        int[] buffer = new int[n];
+        Arrays.setAll(order, row -> row);
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n; low += 2 * width) {
+                int mid = Math.min(low + width, n);
+                int high = Math.min(low + 2 * width, n);
+                int left = low;
+                int right = mid;
+                int out = low;
+                while (left < mid && right < high) {
+                    if (startTimes[order[right]] < startTimes[order[left]]) {
+                        buffer[out++] = order[right++];
+                    } else {
+                        buffer[out++] = order[left++];
+                    }
+                }
+                while (left < mid) {
+                    buffer[out++] = order[left++];
+                }
+                while (right < high) {
+                    buffer[out++] = order[right++];
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    private static long epochNanos(
+            IMemberAccessor<IQuantity, IItem> accessor, IItem item, long defaultValue) {
+        if (accessor == null) {
+            return defaultValue;
+        }
+        IQuantity quantity = accessor.getMember(item);
+        return quantity == null ? defaultValue : quantity.clampedLongValueIn(UnitLookup.EPOCH_NS);
+    }
+
+    private static Column buildQuantityColumn(
+            IAttribute<?> attribute,
+            IItem[] items,
+            int[] rowTypes,
+            List<IMemberAccessor<?, IItem>> accessors) {
+        if (!(attribute.getContentType() instanceof KindOfQuantity)) {
+            return null;
+        }
+        double[] values = new double[items.length];
+        Arrays.fill(values, Double.NaN);
+        for (int row = 0; row < items.length; row++) {
+            IMemberAccessor<?, IItem> accessor = accessors.get(rowTypes[row]);
+            Object value = accessor == null ? null : accessor.getMember(items[row]);
+            if (value instanceof IQuantity) {
+                values[row] = ItemColumn.toDisplayValue((IQuantity) value);
+            } else if (value != null) {
+                return null;
+            }
+        }
+        return new QuantityColumn(attribute, items, values);
+    }
+
+    private static Column buildDictionaryColumn(
+            IAttribute<?> attribute,
+            IItem[] items,
+            int[] rowTypes,
+            List<IMemberAccessor<?, IItem>> accessors) {
+        int[] codes = new int[items.length];
+        List<String> dictionary = new ArrayList<>();
+        Map<String, Integer> codesByString = new HashMap<>();
+        // Constant pool values such as threads, classes and stack traces are shared between
+        // events, so most lookups are resolved by identity without calling toString()
+        Map<Object, Integer> codesByIdentity = new IdentityHashMap<>();
+        for (int row = 0; row < items.length; row++) {
+            IMemberAccessor<?, IItem> accessor = accessors.get(rowTypes[row]);
+            Object value = accessor == null ? null : accessor.getMember(items[row]);
+            if (value == null) {
+                codes[row] = DictionaryColumn.NULL_CODE;
+                continue;
+            }
+            Integer code = value instanceof String ? null : codesByIdentity.get(value);
+            if (code == null) {
+                code =
+                        codesByString.computeIfAbsent(
+                                value.toString(),
+                                string -> {
+                                    dictionary.add(string);
+                                    return dictionary.size() - 1;
+                                });
+                if (!(value instanceof String)) {
+                    codesByIdentity.put(value, code);
+                }
+            }
+            codes[row] = code;
+        }
+        return new DictionaryColumn(attribute, codes, dictionary.toArray(new String[0]));
+    }
+}
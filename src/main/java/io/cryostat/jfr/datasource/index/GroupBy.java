@@ -0,0 +1,287 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Splits rows into series by the values of their fields. Every grouping of the rows is a {@link
+ * Dimension} with a hash map from the key of a row to its {@link Group}, so adding a row costs the
+ * same however many groups there are.
+ */
+public class GroupBy {
+
+    /** Option value selecting every value of a field. */
+    public static final String ANY = "*";
+    /** Value of the group collecting the rows of the groups beyond the limit of a dimension. */
+    public static final String OTHER = "other";
+
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final String VALUE_SEPARATOR = ",";
+
+    private final List<Dimension> dimensions = new ArrayList<>();
+    private final List<Filter> filters = new ArrayList<>();
+    // Every group in order of creation
+    private final List<Group> groups = new ArrayList<>();
+    private final int limit;
+
+    /**
+     * @param columns the column of a field, or {@code null} if there is none
+     * @param options values to select per field, or {@link #ANY}
+     * @param keyFields fields whose combined values key one dimension, in which case the options
+     *     only filter rows. If empty, every option field is an independent dimension and the
+     *     selected values of each get a group even if no row holds them.
+     * @param limit maximum number of groups per dimension, the rows of the least frequent groups
+     *     beyond it are merged into an {@link #OTHER} group
+     */
+    public GroupBy(
+            Function<String, Column> columns,
+            Map<String, Set<String>> options,
+            List<String> keyFields,
+            int limit) {
+        this.limit = limit;
+        if (keyFields.isEmpty()) {
+            options.forEach(
+                    (field, values) -> {
+                        boolean open = values.contains(ANY);
+                        Dimension dimension =
+                                new Dimension(field, new Column[] {columns.apply(field)}, open);
+                        if (!open) {
+                            values.forEach(value -> dimension.addGroup(value, value));
+                        }
+                        dimensions.add(dimension);
+                    });
+        } else {
+            options.forEach(
+                    (field, values) -> {
+                        if (!values.contains(ANY)) {
+                            filters.add(new Filter(columns.apply(field), values));
+                        }
+                    });
+            Column[] keyColumns = new Column[keyFields.size()];
+            for (int i = 0; i < keyColumns.length; i++) {
+                keyColumns[i] = columns.apply(keyFields.get(i));
+            }
+            dimensions.add(
+                    new Dimension(String.join(VALUE_SEPARATOR, keyFields), keyColumns, true));
+        }
+    }
+
+    /** Adds the given row to its group in every dimension. Rows are added in ascending order. */
+    public void add(int row) {
+        for (Filter filter : filters) {
+            if (!filter.matches(row)) {
+                return;
+            }
+        }
+        for (Dimension dimension : dimensions) {
+            dimension.add(row);
+        }
+    }
+
+    /**
+     * The groups in order of creation, followed by the {@link #OTHER} group of every dimension with
+     * more groups than the limit.
+     */
+    public List<Group> getGroups() {
+        Set<Group> merged = new HashSet<>();
+        List<Group> others = new ArrayList<>();
+        for (Dimension dimension : dimensions) {
+            if (dimension.groups.size() <= limit) {
+                continue;
+            }
+            List<Group> ranked = new ArrayList<>(dimension.groups.values());
+            ranked.sort(Comparator.comparingInt(Group::size).reversed());
+            List<Group> rest = ranked.subList(limit, ranked.size());
+            merged.addAll(rest);
+            others.add(Group.merge(dimension.field, rest));
+        }
+        if (merged.isEmpty()) {
+            return groups;
+        }
+        List<Group> result = new ArrayList<>(groups.size() - merged.size() + others.size());
+        for (Group group : groups) {
+            if (!merged.contains(group)) {
+                result.add(group);
+            }
+        }
+        result.addAll(others);
+        return result;
+    }
+
+    /** The rows holding one value, or combination of values, of the fields of a dimension. */
+    public static class Group {
+        private final String field;
+        private final String value;
+        private int[] rows = new int[8];
+        private int size;
+
+        private Group(String field, String value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        /** The field, or comma separated fields, which this group is keyed by. */
+        public String getField() {
+            return field;
+        }
+
+        /** The value of the field, comma separated if there are several. */
+        public String getValue() {
+            return value;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** The rows of this group in ascending order. */
+        public int[] getRows() {
+            return Arrays.copyOf(rows, size);
+        }
+
+        private void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        // The groups of one dimension hold distinct rows
+        private static Group merge(String field, List<Group> groups) {
+            Group merged = new Group(field, OTHER);
+            int size = 0;
+            for (Group group : groups) {
+                size += group.size;
+            }
+            merged.rows = new int[size];
+            for (Group group : groups) {
+                System.arraycopy(group.rows, 0, merged.rows, merged.size, group.size);
+                merged.size += group.size;
+            }
+            Arrays.sort(merged.rows);
+            return merged;
+        }
+    }
+
+    private class Dimension {
+        private final String field;
+        private final Column[] columns;
+        // Whether rows with a value not seen before start a new group
+        private final boolean open;
+        private final Map<String, Group> groups = new LinkedHashMap<>();
+
+        Dimension(String field, Column[] columns, boolean open) {
+            this.field = field;
+            this.columns = columns;
+            this.open = open;
+        }
+
+        void add(int row) {
+            String key = key(row);
+            if (key == null) {
+                return;
+            }
+            Group group = groups.get(key);
+            if (group == null) {
+                if (!open) {
+                    return;
+                }
+                group = addGroup(key, columns.length == 1 ? key : value(row));
+            }
+            group.add(row);
+        }
+
+        Group addGroup(String key, String value) {
+            Group group = new Group(field, value);
+            groups.put(key, group);
+            GroupBy.this.groups.add(group);
+            return group;
+        }
+
+        // null if any of the fields has no value
+        private String key(int row) {
+            if (columns.length == 1) {
+                return columns[0] == null ? null : columns[0].getString(row);
+            }
+            StringBuilder key = new StringBuilder();
+            for (Column column : columns) {
+                String value = column == null ? null : column.getString(row);
+                if (value == null) {
+                    return null;
+                }
+                key.append(value).append(KEY_SEPARATOR);
+            }
+            return key.toString();
+        }
+
+        private String value(int row) {
+            StringBuilder value = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    value.append(VALUE_SEPARATOR);
+                }
+                value.append(columns[i].getString(row));
+            }
+            return value.toString();
+        }
+    }
+
+    private static class Filter {
+        private final Column column;
+        private final Set<String> values;
+
+        Filter(Column column, Set<String> values) {
+            this.column = column;
+            this.values = values;
+        }
+
+        boolean matches(int row) {
+            String value = column == null ? null : column.getString(row);
+            return value != null && values.contains(value);
+        }
+    }
+}
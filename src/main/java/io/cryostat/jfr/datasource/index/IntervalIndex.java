@@ -0,0 +1,103 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Interval index over rows sorted by start time. The maximum end time of each block of rows is kept
+ * in an implicit binary tree. Rows overlapping a range all start before the range ends, and within
+ * that prefix only subtrees whose maximum end time reaches the start of the range are descended. A
+ * lookup therefore costs O(log n) plus the number of matching rows.
+ */
+class IntervalIndex {
+
+    // Rows per leaf, trading a short scan for a tree a sixteenth of the table size
+    private static final int BLOCK_SIZE = 16;
+
+    private final long[] endTimes;
+    private final int leaves;
+    private final long[] maxEndTimes;
+
+    IntervalIndex(long[] endTimes) {
+        this.endTimes = endTimes;
+        int blocks = (endTimes.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.leaves = blocks <= 1 ? 1 : Integer.highestOneBit(blocks - 1) << 1;
+        this.maxEndTimes = new long[2 * leaves];
+        Arrays.fill(maxEndTimes, Long.MIN_VALUE);
+        for (int row = 0; row < endTimes.length; row++) {
+            int node = leaves + row / BLOCK_SIZE;
+            maxEndTimes[node] = Math.max(maxEndTimes[node], endTimes[row]);
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            maxEndTimes[node] = Math.max(maxEndTimes[2 * node], maxEndTimes[2 * node + 1]);
+        }
+    }
+
+    /** Rows before {@code limit} which end at or after {@code from}, in row order. */
+    int[] selectEndingAtOrAfter(int limit, long from) {
+        IntStream.Builder rows = IntStream.builder();
+        collect(1, 0, leaves, limit, from, rows);
+        return rows.build().toArray();
+    }
+
+    long getEstimatedSize() {
+        return (long) maxEndTimes.length * Long.BYTES;
+    }
+
+    private void collect(
+            int node, int firstBlock, int blocks, int limit, long from, IntStream.Builder rows) {
+        int firstRow = firstBlock * BLOCK_SIZE;
+        if (firstRow >= limit || maxEndTimes[node] < from) {
+            return;
+        }
+        if (node >= leaves) {
+            int end = Math.min(firstRow + BLOCK_SIZE, limit);
+            for (int row = firstRow; row < end; row++) {
+                if (endTimes[row] >= from) {
+                    rows.add(row);
+                }
+            }
+            return;
+        }
+        int half = blocks / 2;
+        collect(2 * node, firstBlock, half, limit, from, rows);
+        collect(2 * node + 1, firstBlock + half, half, limit, from, rows);
+    }
+}
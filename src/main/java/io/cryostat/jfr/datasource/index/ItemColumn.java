@@ -0,0 +1,111 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.ItemToolkit;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IUnit;
+import org.openjdk.jmc.common.unit.KindOfQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+
+/**
+ * Reads values straight from the JMC items of a table. Used when columns are not materialized at
+ * load time.
+ */
+class ItemColumn extends Column {
+
+    private final IItem[] items;
+    private final IMemberAccessor<?, IItem> accessor;
+
+    ItemColumn(IAttribute<?> attribute, IItem[] items) {
+        super(attribute);
+        this.items = items;
+        this.accessor = ItemToolkit.accessor(attribute);
+    }
+
+    @Override
+    public boolean isNumeric() {
+        return attribute.getContentType() instanceof KindOfQuantity;
+    }
+
+    @Override
+    public double getDouble(int row) {
+        Object value = accessor.getMember(items[row]);
+        if (value instanceof IQuantity) {
+            return toDisplayValue((IQuantity) value);
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public String getString(int row) {
+        Object value = accessor.getMember(items[row]);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    protected int size() {
+        return items.length;
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        return 0;
+    }
+
+    static double toDisplayValue(IQuantity quantity) {
+        return quantity.doubleValueIn(displayUnit(quantity.getUnit()));
+    }
+
+    static IUnit displayUnit(IUnit originalUnit) {
+        String unitIdentifier = originalUnit.getContentType().getIdentifier();
+        switch (unitIdentifier) {
+            case "memory":
+                return UnitLookup.BYTE;
+            case "timespan":
+                return UnitLookup.MILLISECOND;
+            case "frequency":
+                return UnitLookup.HERTZ;
+            default:
+                return originalUnit;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch with relative error guarantees. Values are counted in logarithmic
+ * buckets whose boundaries grow by a constant factor, so any quantile is answered within {@link
+ * #RELATIVE_ACCURACY} of its exact value and two sketches are merged by adding their bucket counts.
+ */
+class QuantileSketch {
+
+    static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = StrictMath.log(GAMMA);
+    // Smaller magnitudes are counted as zero
+    private static final double MIN_INDEXED_VALUE = 1e-9;
+
+    private final Store positives = new Store();
+    private final Store negatives = new Store();
+    private long zeroCount;
+    private long count;
+
+    void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value > MIN_INDEXED_VALUE) {
+            positives.add(index(value), 1);
+        } else if (value < -MIN_INDEXED_VALUE) {
+            negatives.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        count++;
+    }
+
+    void merge(QuantileSketch other) {
+        positives.merge(other.positives);
+        negatives.merge(other.negatives);
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /** The value at the given quantile in {@code [0, 1]}, or {@code NaN} if the sketch is empty. */
+    double getQuantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = 0;
+        for (int i = negatives.counts.length - 1; i >= 0; i--) {
+            seen += negatives.counts[i];
+            if (seen > rank) {
+                return -value(negatives.offset + i);
+            }
+        }
+        seen += zeroCount;
+        if (seen > rank) {
+            return 0;
+        }
+        for (int i = 0; i < positives.counts.length; i++) {
+            seen += positives.counts[i];
+            if (seen > rank) {
+                return value(positives.offset + i);
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static int index(double value) {
+        return (int) Math.ceil(StrictMath.log(value) / LOG_GAMMA);
+    }
+
+    // The middle of the bucket in relative terms, so both of its boundaries are within the accuracy
+    private static double value(int index) {
+        return 2 * StrictMath.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /** Counts of consecutive bucket indices starting at {@code offset}, grown on demand. */
+    private static class Store {
+        private long[] counts = new long[0];
+        private int offset;
+
+        void add(int index, long n) {
+            if (counts.length == 0) {
+                counts = new long[8];
+                offset = index;
+            } else if (index < offset) {
+                int shift = offset - index;
+                long[] grown = new long[counts.length + Math.max(shift, counts.length / 2)];
+                System.arraycopy(counts, 0, grown, grown.length - counts.length, counts.length);
+                offset -= grown.length - counts.length;
+                counts = grown;
+            } else if (index >= offset + counts.length) {
+                int needed = index - offset + 1;
+                counts = Arrays.copyOf(counts, Math.max(needed, counts.length + counts.length / 2));
+            }
+            counts[index - offset] += n;
+        }
+
+        void merge(Store other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Arrays;
+
+/**
+ * One {@link QuantileSketch} per fixed base bucket of start times for a column of an {@link
+ * EventTable}. Percentiles over any multiple of the base interval are answered by merging the
+ * sketches of the base buckets instead of adding every value again.
+ */
+class QuantileSketches {
+
+    static final long BASE_INTERVAL = 1_000_000_000L; // 1s in nanoseconds
+
+    // Start of each non-empty base bucket, ascending
+    private final long[] bucketStarts;
+    // First row of each bucket, rows are sorted by start time so each bucket is contiguous
+    private final int[] firstRows;
+    // Number of rows of each bucket, including rows without a value
+    private final int[] rowCounts;
+    private final QuantileSketch[] sketches;
+
+    private QuantileSketches(
+            long[] bucketStarts, int[] firstRows, int[] rowCounts, QuantileSketch[] sketches) {
+        this.bucketStarts = bucketStarts;
+        this.firstRows = firstRows;
+        this.rowCounts = rowCounts;
+        this.sketches = sketches;
+    }
+
+    static QuantileSketches build(EventTable table, Column column) {
+        int n = table.size();
+        long[] bucketStarts = new long[Math.min(n, 16)];
+        int[] firstRows = new int[bucketStarts.length];
+        int[] rowCounts = new int[bucketStarts.length];
+        QuantileSketch[] sketches = new QuantileSketch[bucketStarts.length];
+        int buckets = 0;
+        for (int row = 0; row < n; row++) {
+            long start = bucketStart(table.getStartTime(row));
+            if (buckets == 0 || bucketStarts[buckets - 1] != start) {
+                if (buckets == bucketStarts.length) {
+                    int capacity = buckets * 2;
+                    bucketStarts = Arrays.copyOf(bucketStarts, capacity);
+                    firstRows = Arrays.copyOf(firstRows, capacity);
+                    rowCounts = Arrays.copyOf(rowCounts, capacity);
+                    sketches = Arrays.copyOf(sketches, capacity);
+                }
+                bucketStarts[buckets] = start;
+                firstRows[buckets] = row;
+                sketches[buckets] = new QuantileSketch();
+                buckets++;
+            }
+            rowCounts[buckets - 1]++;
+            sketches[buckets - 1].add(column.getDouble(row));
+        }
+        return new QuantileSketches(
+                Arrays.copyOf(bucketStarts, buckets),
+                Arrays.copyOf(firstRows, buckets),
+                Arrays.copyOf(rowCounts, buckets),
+                Arrays.copyOf(sketches, buckets));
+    }
+
+    static long bucketStart(long epochNanos) {
+        return Math.floorDiv(epochNanos, BASE_INTERVAL) * BASE_INTERVAL;
+    }
+
+    /** Index of the base bucket starting at the given time, or a negative value if it is empty. */
+    int indexOf(long bucketStart) {
+        return Arrays.binarySearch(bucketStarts, bucketStart);
+    }
+
+    int getFirstRow(int bucket) {
+        return firstRows[bucket];
+    }
+
+    int getRowCount(int bucket) {
+        return rowCounts[bucket];
+    }
+
+    QuantileSketch getSketch(int bucket) {
+        return sketches[bucket];
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Recording level summary aggregated from the {@link TypeMetadata} of every table, so that the
+ * recording bounds do not require a scan of all events.
+ */
+public class RecordingMetadata {
+
+    private final long eventCount;
+    private final long startTime;
+    private final long endTime;
+    private final Map<String, TypeMetadata> types;
+
+    RecordingMetadata(Collection<EventTable> tables) {
+        long eventCount = 0;
+        long startTime = Long.MAX_VALUE;
+        long endTime = Long.MIN_VALUE;
+        Map<String, TypeMetadata> types = new LinkedHashMap<>();
+        for (EventTable table : tables) {
+            TypeMetadata metadata = table.getMetadata();
+            eventCount += metadata.getCount();
+            startTime = Math.min(metadata.getStartTime(), startTime);
+            endTime = Math.max(metadata.getEndTime(), endTime);
+            types.put(metadata.getTypeIdentifier(), metadata);
+        }
+        this.eventCount = eventCount;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.types = types;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /** Start time of the first event in epoch milliseconds, or {@link Long#MAX_VALUE} if none. */
+    public long getStartMillis() {
+        return eventCount == 0 ? Long.MAX_VALUE : EventTable.toEpochMillis(startTime);
+    }
+
+    /** Latest start or end time of any event in epoch milliseconds, or 0 if none. */
+    public long getEndMillis() {
+        return eventCount == 0 ? 0 : EventTable.toEpochMillis(endTime);
+    }
+
+    public long getDurationMillis() {
+        return Math.max(getEndMillis() - getStartMillis(), 0);
+    }
+
+    public Optional<TypeMetadata> getType(String typeIdentifier) {
+        return Optional.ofNullable(types.get(typeIdentifier));
+    }
+
+    public Map<String, TypeMetadata> getTypes() {
+        return Collections.unmodifiableMap(types);
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.put("eventCount", eventCount);
+        if (eventCount > 0) {
+            json.put("startTime", getStartMillis());
+            json.put("endTime", getEndMillis());
+        }
+        json.put("duration", getDurationMillis());
+        JsonObject typesJson = new JsonObject();
+        types.forEach((identifier, metadata) -> typesJson.put(identifier, metadata.toJson()));
+        json.put("types", typesJson);
+        return json;
+    }
+}
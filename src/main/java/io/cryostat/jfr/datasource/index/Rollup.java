@@ -0,0 +1,229 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Arrays;
+
+/**
+ * Count, sum, minimum and maximum of a numeric column per fixed bucket of start times, materialized
+ * when a recording is loaded. Rows are sorted by start time, so the rows of each bucket are a
+ * contiguous range and a bucket whose rows are all selected is aggregated without visiting them.
+ */
+class Rollup {
+
+    /** Bucket widths in nanoseconds, finest first. Each is a multiple of the previous one. */
+    static final long[] RESOLUTIONS = {
+        1_000_000_000L, // 1s
+        10_000_000_000L, // 10s
+        60_000_000_000L, // 1m
+        600_000_000_000L, // 10m
+    };
+
+    private final long resolution;
+    // Buckets without rows are skipped. The rows of bucket i are [firstRows[i], firstRows[i + 1])
+    private final int[] firstRows;
+    private final long[] valued;
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxs;
+
+    private Rollup(
+            long resolution,
+            int[] firstRows,
+            long[] valued,
+            double[] sums,
+            double[] mins,
+            double[] maxs) {
+        this.resolution = resolution;
+        this.firstRows = firstRows;
+        this.valued = valued;
+        this.sums = sums;
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    /** Rollups of the given column at every resolution, finest first. */
+    static Rollup[] build(long[] startTimes, Column column) {
+        Rollup[] rollups = new Rollup[RESOLUTIONS.length];
+        rollups[0] = fromRows(RESOLUTIONS[0], startTimes, column);
+        for (int i = 1; i < RESOLUTIONS.length; i++) {
+            rollups[i] = rollups[i - 1].coarsen(RESOLUTIONS[i], startTimes);
+        }
+        return rollups;
+    }
+
+    private static Rollup fromRows(long resolution, long[] startTimes, Column column) {
+        Builder builder = new Builder(resolution, startTimes.length);
+        for (int row = 0; row < startTimes.length; row++) {
+            builder.startRow(row, startTimes[row]);
+            double value = column.getDouble(row);
+            if (!Double.isNaN(value)) {
+                builder.add(1, value, value, value);
+            }
+        }
+        return builder.build(startTimes.length);
+    }
+
+    /** Merges the buckets of this rollup into the buckets of a multiple of its resolution. */
+    private Rollup coarsen(long resolution, long[] startTimes) {
+        Builder builder = new Builder(resolution, size());
+        for (int bucket = 0; bucket < size(); bucket++) {
+            int row = firstRows[bucket];
+            builder.startRow(row, startTimes[row]);
+            builder.add(valued[bucket], sums[bucket], mins[bucket], maxs[bucket]);
+        }
+        return builder.build(startTimes.length);
+    }
+
+    long getResolution() {
+        return resolution;
+    }
+
+    int size() {
+        return valued.length;
+    }
+
+    int getFirstRow(int bucket) {
+        return firstRows[bucket];
+    }
+
+    /** The row after the last row of the given bucket. */
+    int getEndRow(int bucket) {
+        return firstRows[bucket + 1];
+    }
+
+    /**
+     * The bucket holding the given row, searched for from the given bucket on.
+     *
+     * @param from a bucket not after the one holding the row
+     */
+    int bucketOf(int row, int from) {
+        int low = from;
+        int high = size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstRows[mid] <= row) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    long getValued(int bucket) {
+        return valued[bucket];
+    }
+
+    double getSum(int bucket) {
+        return sums[bucket];
+    }
+
+    double getMin(int bucket) {
+        return mins[bucket];
+    }
+
+    double getMax(int bucket) {
+        return maxs[bucket];
+    }
+
+    long getEstimatedSize() {
+        return (long) size() * (Integer.BYTES + Long.BYTES + Double.BYTES * 3);
+    }
+
+    private static class Builder {
+        private final long resolution;
+        private int[] firstRows;
+        private long[] valued;
+        private double[] sums;
+        private double[] mins;
+        private double[] maxs;
+        private int buckets;
+        private long bucketStart = Long.MIN_VALUE;
+
+        Builder(long resolution, int maxBuckets) {
+            this.resolution = resolution;
+            int capacity = Math.min(maxBuckets, 16);
+            this.firstRows = new int[capacity + 1];
+            this.valued = new long[capacity];
+            this.sums = new double[capacity];
+            this.mins = new double[capacity];
+            this.maxs = new double[capacity];
+        }
+
+        void startRow(int row, long startTime) {
+            long start = Math.floorDiv(startTime, resolution) * resolution;
+            if (buckets > 0 && start == bucketStart) {
+                return;
+            }
+            if (buckets == valued.length) {
+                int capacity = Math.max(1, buckets * 2);
+                firstRows = Arrays.copyOf(firstRows, capacity + 1);
+                valued = Arrays.copyOf(valued, capacity);
+                sums = Arrays.copyOf(sums, capacity);
+                mins = Arrays.copyOf(mins, capacity);
+                maxs = Arrays.copyOf(maxs, capacity);
+            }
+            bucketStart = start;
+            firstRows[buckets] = row;
+            mins[buckets] = Double.POSITIVE_INFINITY;
+            maxs[buckets] = Double.NEGATIVE_INFINITY;
+            buckets++;
+        }
+
+        void add(long count, double sum, double min, double max) {
+            int bucket = buckets - 1;
+            valued[bucket] += count;
+            sums[bucket] += sum;
+            mins[bucket] = Math.min(min, mins[bucket]);
+            maxs[bucket] = Math.max(max, maxs[bucket]);
+        }
+
+        Rollup build(int rows) {
+            int[] first = Arrays.copyOf(firstRows, buckets + 1);
+            first[buckets] = rows;
+            return new Rollup(
+                    resolution,
+                    first,
+                    Arrays.copyOf(valued, buckets),
+                    Arrays.copyOf(sums, buckets),
+                    Arrays.copyOf(mins, buckets),
+                    Arrays.copyOf(maxs, buckets));
+        }
+    }
+}
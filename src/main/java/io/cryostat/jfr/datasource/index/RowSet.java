@@ -0,0 +1,100 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Arrays;
+
+/**
+ * Rows of an {@link EventTable} in ascending order, without duplicates. Rows selected by start time
+ * are a contiguous range, which is kept as its bounds rather than materialized.
+ */
+public final class RowSet {
+
+    public static final RowSet EMPTY = range(0, 0);
+
+    // Set for arbitrary rows, null for the range [first, end)
+    private final int[] rows;
+    private final int first;
+    private final int end;
+
+    private RowSet(int[] rows, int first, int end) {
+        this.rows = rows;
+        this.first = first;
+        this.end = end;
+    }
+
+    /** The rows from {@code first} up to, but not including, {@code end}. */
+    public static RowSet range(int first, int end) {
+        return new RowSet(null, first, Math.max(first, end));
+    }
+
+    /** @param rows distinct rows in ascending order, which must not be modified afterwards */
+    public static RowSet of(int[] rows) {
+        return new RowSet(rows, 0, rows.length);
+    }
+
+    public int size() {
+        return rows == null ? end - first : rows.length;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** The row at the given position. */
+    public int get(int index) {
+        return rows == null ? first + index : rows[index];
+    }
+
+    /**
+     * Whether the {@code n} positions from {@code index} hold consecutive rows, which is always the
+     * case for a range. Rows are distinct and ascending, so only the ends need to be compared.
+     */
+    public boolean isContiguous(int index, int n) {
+        return index + n <= size() && (rows == null || get(index + n - 1) == get(index) + n - 1);
+    }
+
+    public int[] toArray() {
+        if (rows != null) {
+            return rows;
+        }
+        int[] array = new int[end - first];
+        Arrays.setAll(array, index -> first + index);
+        return array;
+    }
+}
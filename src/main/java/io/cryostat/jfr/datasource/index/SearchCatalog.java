@@ -0,0 +1,126 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Selectable {@code type.attribute} names of a recording, indexed by a prefix trie for
+ * autocompletion. Every trie node holds the positions of the names below it, so a prefix lookup
+ * costs the length of the prefix plus the number of names returned.
+ */
+public class SearchCatalog {
+
+    private final String[] names;
+    private final Node root = new Node();
+    private final String json;
+
+    private SearchCatalog(Collection<String> names) {
+        this.names = names.toArray(new String[0]);
+        for (int i = 0; i < this.names.length; i++) {
+            Node node = root;
+            node.add(i);
+            for (char c : this.names[i].toCharArray()) {
+                node = node.children.computeIfAbsent(c, k -> new Node());
+                node.add(i);
+            }
+        }
+        this.json = new JsonArray(Arrays.asList(this.names)).encode();
+    }
+
+    static SearchCatalog of(Collection<EventTable> tables) {
+        Set<String> names = new LinkedHashSet<>();
+        for (EventTable table : tables) {
+            for (String attribute : table.getColumns().keySet()) {
+                if (attribute.contains("eventType")
+                        || attribute.contains("startTime")
+                        || attribute.contains("endTime")) {
+                    continue;
+                }
+                names.add(table.getTypeIdentifier() + "." + attribute);
+            }
+        }
+        return new SearchCatalog(names);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /** Names starting with the given prefix, in catalog order, up to {@code limit} of them. */
+    public List<String> find(String prefix, int limit) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(prefix.charAt(i));
+        }
+        List<String> found = new ArrayList<>();
+        if (node != null) {
+            for (int i = 0; i < node.count && found.size() < limit; i++) {
+                found.add(names[node.entries[i]]);
+            }
+        }
+        return found;
+    }
+
+    /** The whole catalog as a JSON array, serialized once when the catalog is built. */
+    public String toJson() {
+        return json;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private int[] entries = new int[1];
+        private int count;
+
+        void add(int entry) {
+            if (count == entries.length) {
+                entries = Arrays.copyOf(entries, count * 2);
+            }
+            entries[count++] = entry;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.vertx.core.json.JsonObject;
+
+/** Summary of the events of one type, computed when its {@link EventTable} is built. */
+public class TypeMetadata {
+
+    private final String typeIdentifier;
+    private final int count;
+    private final long startTime;
+    private final long endTime;
+    private final Map<String, FieldRange> fieldRanges;
+
+    private TypeMetadata(
+            String typeIdentifier,
+            int count,
+            long startTime,
+            long endTime,
+            Map<String, FieldRange> fieldRanges) {
+        this.typeIdentifier = typeIdentifier;
+        this.count = count;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.fieldRanges = fieldRanges;
+    }
+
+    static TypeMetadata of(
+            String typeIdentifier,
+            long[] startTimes,
+            long[] endTimes,
+            Map<String, Column> columns) {
+        long startTime = Long.MAX_VALUE;
+        long endTime = Long.MIN_VALUE;
+        if (startTimes.length > 0) {
+            // Rows are sorted by start time
+            startTime = startTimes[0];
+            endTime = startTimes[startTimes.length - 1];
+        }
+        for (long time : endTimes) {
+            endTime = Math.max(time, endTime);
+        }
+
+        Map<String, FieldRange> fieldRanges = new LinkedHashMap<>();
+        columns.forEach(
+                (identifier, column) -> {
+                    if (!column.isNumeric()) {
+                        return;
+                    }
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (int row = 0; row < startTimes.length; row++) {
+                        double value = column.getDouble(row);
+                        if (!Double.isNaN(value)) {
+                            min = Math.min(value, min);
+                            max = Math.max(value, max);
+                        }
+                    }
+                    if (min <= max) {
+                        fieldRanges.put(identifier, new FieldRange(min, max));
+                    }
+                });
+        return new TypeMetadata(typeIdentifier, startTimes.length, startTime, endTime, fieldRanges);
+    }
+
+    public String getTypeIdentifier() {
+        return typeIdentifier;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /** Start time of the first event in epoch nanoseconds, or {@link Long#MAX_VALUE} if none. */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /** Latest start or end time of any event in epoch nanoseconds, or {@link Long#MIN_VALUE}. */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /** Smallest and largest display unit value of each numeric field which has any values. */
+    public Map<String, FieldRange> getFieldRanges() {
+        return Collections.unmodifiableMap(fieldRanges);
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.put("count", count);
+        if (count > 0) {
+            json.put("startTime", EventTable.toEpochMillis(startTime));
+            json.put("endTime", EventTable.toEpochMillis(endTime));
+        }
+        JsonObject fields = new JsonObject();
+        fieldRanges.forEach(
+                (identifier, range) ->
+                        fields.put(
+                                identifier,
+                                new JsonObject()
+                                        .put("min", range.getMin())
+                                        .put("max", range.getMax())));
+        json.put("fields", fields);
+        return json;
+    }
+
+    public static class FieldRange {
+        private final double min;
+        private final double max;
+
+        FieldRange(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
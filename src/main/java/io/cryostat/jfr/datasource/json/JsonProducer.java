@@ -0,0 +1,160 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.json;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Produces a JSON document one piece at a time, so the start of a large response can be sent
+ * before the rest of it has been computed.
+ */
+@FunctionalInterface
+public interface JsonProducer {
+
+    /**
+     * Writes the next piece of the document, which should be small enough to be written without
+     * holding up other requests for long.
+     *
+     * @return whether there is more to write
+     */
+    boolean produce(JsonWriter writer);
+
+    /** Called if the document will not be written to the end, so that it can free its resources. */
+    default void cancel() {}
+
+    /** A document which is already encoded. */
+    static JsonProducer of(String json) {
+        return writer -> {
+            writer.rawValue(json);
+            return false;
+        };
+    }
+
+    /** A document which is already encoded as UTF-8, written one piece at a time. */
+    static JsonProducer ofPieces(List<byte[]> pieces) {
+        return new JsonProducer() {
+            private int next;
+
+            @Override
+            public boolean produce(JsonWriter writer) {
+                if (next < pieces.size()) {
+                    byte[] piece = pieces.get(next++);
+                    writer.rawBytes(piece, 0, piece.length);
+                }
+                return next < pieces.size();
+            }
+        };
+    }
+
+    /** An array of the given strings, written in slices. */
+    static JsonProducer ofStrings(List<String> values) {
+        return new JsonProducer() {
+            private static final int SLICE = 1024;
+            private int next = -1;
+
+            @Override
+            public boolean produce(JsonWriter writer) {
+                if (next < 0) {
+                    writer.beginArray();
+                    next = 0;
+                }
+                int end = Math.min(next + SLICE, values.size());
+                for (; next < end; next++) {
+                    writer.value(values.get(next));
+                }
+                if (next < values.size()) {
+                    return true;
+                }
+                writer.endArray();
+                return false;
+            }
+        };
+    }
+
+    /** An array of the elements written by the given producers, one after the other. */
+    static JsonProducer ofArray(List<JsonProducer> elements) {
+        JsonProducer sequence = sequence(elements);
+        return new JsonProducer() {
+            private boolean started;
+
+            @Override
+            public boolean produce(JsonWriter writer) {
+                if (!started) {
+                    writer.beginArray();
+                    started = true;
+                }
+                if (sequence.produce(writer)) {
+                    return true;
+                }
+                writer.endArray();
+                return false;
+            }
+        };
+    }
+
+    /** Everything written by the given producers, one after the other. */
+    static JsonProducer sequence(List<JsonProducer> producers) {
+        return new JsonProducer() {
+            private int next;
+
+            @Override
+            public boolean produce(JsonWriter writer) {
+                if (next < producers.size() && !producers.get(next).produce(writer)) {
+                    next++;
+                }
+                return next < producers.size();
+            }
+        };
+    }
+
+    /** A producer which is only created once its output is needed. */
+    static JsonProducer defer(Supplier<JsonProducer> supplier) {
+        return new JsonProducer() {
+            private JsonProducer producer;
+
+            @Override
+            public boolean produce(JsonWriter writer) {
+                if (producer == null) {
+                    producer = supplier.get();
+                }
+                return producer.produce(writer);
+            }
+        };
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.json;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Appends JSON text to a pooled {@link ByteBuf}, taking care of the separators between values.
+ * Strings are escaped and numbers formatted like Jackson does, so the output matches an encoded
+ * {@link io.vertx.core.json.JsonArray} of the same values, but primitive values are written without
+ * boxing them or building intermediate strings.
+ *
+ * <p>The pooled buffer is only held while a piece of output is being written: {@link #take()}
+ * hands it over to the caller and {@link #release()} returns it to the pool.
+ */
+public class JsonWriter {
+
+    private static final int DEFAULT_CAPACITY = 8 * 1024;
+    private static final byte[] HEX_DIGITS = ascii("0123456789ABCDEF");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] LONG_MIN_VALUE = ascii(Long.toString(Long.MIN_VALUE));
+
+    // Decimals of up to this many significant digits map to distinct doubles
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final long[] LONG_POWERS_OF_TEN = new long[MAX_EXACT_DIGITS + 1];
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[MAX_EXACT_DIGITS + 1];
+
+    static {
+        long power = 1;
+        for (int i = 0; i <= MAX_EXACT_DIGITS; i++) {
+            LONG_POWERS_OF_TEN[i] = power;
+            DOUBLE_POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    private final ByteBufAllocator allocator;
+    private final int capacity;
+    private ByteBuf buffer;
+    // Scratch space for the digits of a long, which are produced from the last one
+    private final byte[] digits = new byte[19];
+    // Whether the array or object at each depth already has an element
+    private boolean[] hasElements = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** @param capacity the initial capacity of the buffers taken from the pool */
+    public JsonWriter(int capacity) {
+        this(PooledByteBufAllocator.DEFAULT, capacity);
+    }
+
+    JsonWriter(ByteBufAllocator allocator, int capacity) {
+        this.allocator = allocator;
+        this.capacity = capacity;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        buffer().writeByte('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        buffer().writeByte(']');
+        return this;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        buffer().writeByte('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        buffer().writeByte('}');
+        return this;
+    }
+
+    /** Writes the name of the next member of the current object. */
+    public JsonWriter name(String name) {
+        separate();
+        appendQuoted(name);
+        buffer.writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        appendQuoted(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        appendLong(value);
+        return this;
+    }
+
+    /** Writes {@code null} for NaN and infinite values, which JSON cannot represent. */
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        if (!appendPlainDouble(value)) {
+            ByteBufUtil.writeAscii(buffer, Double.toString(value));
+        }
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        buffer.writeBytes(NULL);
+        return this;
+    }
+
+    /** Writes a value which is already encoded as JSON. */
+    public JsonWriter rawValue(String json) {
+        beforeValue();
+        ByteBufUtil.writeUtf8(buffer, json);
+        return this;
+    }
+
+    /**
+     * Appends bytes which are already encoded as JSON as they are, without a separator from what
+     * was written before. A value can thereby be written across several calls.
+     */
+    public JsonWriter rawBytes(byte[] json, int offset, int length) {
+        buffer().writeBytes(json, offset, length);
+        return this;
+    }
+
+    /** Number of bytes written since the last {@link #take()}. */
+    public int size() {
+        return buffer == null ? 0 : buffer.readableBytes();
+    }
+
+    /**
+     * Hands over the pooled buffer holding the bytes written so far, without copying them. The
+     * caller releases it once it has been sent, and the next write takes a fresh buffer.
+     */
+    public ByteBuf take() {
+        if (buffer == null) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+        ByteBuf taken = buffer;
+        buffer = null;
+        return taken;
+    }
+
+    /**
+     * Copies the bytes written since the writer had the given {@link #size()}, without taking them.
+     */
+    public byte[] copySince(int size) {
+        byte[] bytes = new byte[size() - size];
+        if (bytes.length > 0) {
+            buffer.getBytes(buffer.readerIndex() + size, bytes);
+        }
+        return bytes;
+    }
+
+    /** Discards anything written since the last {@link #take()} and gives the buffer back. */
+    public void release() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private ByteBuf buffer() {
+        if (buffer == null) {
+            buffer = allocator.heapBuffer(capacity);
+        }
+        return buffer;
+    }
+
+    private void push() {
+        if (depth == hasElements.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(hasElements, 0, grown, 0, depth);
+            hasElements = grown;
+        }
+        hasElements[depth++] = false;
+    }
+
+    private void beforeValue() {
+        buffer();
+        if (afterName) {
+            afterName = false;
+        } else {
+            separate();
+        }
+    }
+
+    private void separate() {
+        buffer();
+        if (depth > 0) {
+            if (hasElements[depth - 1]) {
+                buffer.writeByte(',');
+            }
+            hasElements[depth - 1] = true;
+        }
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.writeBytes(LONG_MIN_VALUE);
+            return;
+        }
+        if (value < 0) {
+            buffer.writeByte('-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.writeBytes(digits, start, digits.length - start);
+    }
+
+    /**
+     * Writes the value in the plain notation {@link Double#toString(double)} uses between 10^-3 and
+     * 10^7, if it is the closest double to a decimal of at most {@link #MAX_EXACT_DIGITS}
+     * significant digits. That decimal is then the shortest one which reads back as the same
+     * double, which is also what {@link Double#toString(double)} would print.
+     *
+     * @return false if the value has to be formatted by {@link Double#toString(double)} instead
+     */
+    private boolean appendPlainDouble(double value) {
+        double abs = Math.abs(value);
+        if (!(abs >= 1e-3 && abs < 1e7)) {
+            return false;
+        }
+        long integral = (long) abs;
+        int integralDigits = 0;
+        while (integralDigits < MAX_EXACT_DIGITS
+                && integral >= LONG_POWERS_OF_TEN[integralDigits]) {
+            integralDigits++;
+        }
+        for (int scale = 1; integralDigits + scale <= MAX_EXACT_DIGITS; scale++) {
+            long scaled = Math.round(abs * DOUBLE_POWERS_OF_TEN[scale]);
+            // Both operands are exact, so the division is the double closest to the decimal
+            if (scaled / DOUBLE_POWERS_OF_TEN[scale] == abs) {
+                if (value < 0) {
+                    buffer.writeByte('-');
+                }
+                appendLong(scaled / LONG_POWERS_OF_TEN[scale]);
+                buffer.writeByte('.');
+                long fraction = scaled % LONG_POWERS_OF_TEN[scale];
+                for (int i = scale - 1; i >= 0; i--) {
+                    buffer.writeByte('0' + (int) (fraction / LONG_POWERS_OF_TEN[i] % 10));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void appendQuoted(String value) {
+        buffer.writeByte('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                if (i > start) {
+                    ByteBufUtil.writeUtf8(buffer, value, start, i);
+                }
+                appendEscaped(c);
+                start = i + 1;
+            }
+        }
+        if (start < value.length()) {
+            ByteBufUtil.writeUtf8(buffer, value, start, value.length());
+        }
+        buffer.writeByte('"');
+    }
+
+    private void appendEscaped(char c) {
+        buffer.writeByte('\\');
+        switch (c) {
+            case '"':
+            case '\\':
+                buffer.writeByte(c);
+                break;
+            case '\b':
+                buffer.writeByte('b');
+                break;
+            case '\t':
+                buffer.writeByte('t');
+                break;
+            case '\n':
+                buffer.writeByte('n');
+                break;
+            case '\f':
+                buffer.writeByte('f');
+                break;
+            case '\r':
+                buffer.writeByte('r');
+                break;
+            default:
+                buffer.writeByte('u').writeByte('0').writeByte('0');
+                buffer.writeByte(HEX_DIGITS[c >> 4]);
+                buffer.writeByte(HEX_DIGITS[c & 0xF]);
+        }
+    }
+}
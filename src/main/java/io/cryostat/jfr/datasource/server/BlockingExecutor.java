@@ -0,0 +1,113 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+import io.cryostat.jfr.datasource.utils.VirtualThreads;
+
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the handlers of routes which block on file system operations or recording loads. They run
+ * on the worker pool, or on a virtual thread each if {@code jfr-datasource.virtual-threads.enabled}
+ * is set, so that a burst of large uploads cannot starve the worker pool.
+ */
+@ApplicationScoped
+public class BlockingExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockingExecutor.class);
+
+    @ConfigProperty(name = "jfr-datasource.virtual-threads.enabled")
+    boolean virtualThreads;
+
+    // Null unless virtual threads are enabled and supported
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        if (virtualThreads) {
+            Optional<ExecutorService> virtual = VirtualThreads.newThreadPerTaskExecutor();
+            if (virtual.isEmpty()) {
+                LOGGER.warn(
+                        "Virtual threads are not supported by this runtime, using the worker pool");
+            }
+            this.executor = virtual.orElse(null);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public void submit(RoutingContext context, Runnable handler) {
+        Runnable task =
+                () -> {
+                    try {
+                        handler.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed to handle request", e);
+                        if (!context.response().ended()) {
+                            context.response().setStatusCode(500).end();
+                        }
+                    }
+                };
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            context.vertx()
+                    .executeBlocking(
+                            promise -> {
+                                task.run();
+                                promise.complete();
+                            },
+                            false);
+        }
+    }
+}
@@ -42,19 +42,32 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 
 import javax.inject.Inject;
 
+import io.cryostat.jfr.datasource.arrow.ArrowProducer;
+import io.cryostat.jfr.datasource.arrow.ArrowStreamResponse;
+import io.cryostat.jfr.datasource.events.LoadProgress;
 import io.cryostat.jfr.datasource.events.RecordingService;
+import io.cryostat.jfr.datasource.events.RecordingSnapshot;
+import io.cryostat.jfr.datasource.json.ChunkedJsonResponse;
+import io.cryostat.jfr.datasource.json.JsonProducer;
 import io.cryostat.jfr.datasource.sys.FileSystemService;
+import io.cryostat.jfr.datasource.utils.InvalidQueryException;
+import io.cryostat.jfr.datasource.utils.ResponseCompression;
 
+import io.quarkus.runtime.configuration.MemorySize;
 import io.quarkus.vertx.web.ReactiveRoutes;
 import io.quarkus.vertx.web.Route;
 import io.quarkus.vertx.web.Route.HttpMethod;
-import io.smallrye.common.annotation.Blocking;
 import io.vertx.core.MultiMap;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonObject;
@@ -66,16 +79,27 @@ import org.slf4j.LoggerFactory;
 
 public class Datasource {
     private static final Logger LOGGER = LoggerFactory.getLogger(Datasource.class);
-    private static final String UNSET_FILE = "";
-    private volatile String loadedFile = UNSET_FILE;
 
     @ConfigProperty(name = "quarkus.http.body.uploads-directory")
     String jfrDir;
 
+    @ConfigProperty(name = "jfr-datasource.compression.enabled")
+    boolean compressionEnabled;
+
+    @ConfigProperty(name = "jfr-datasource.compression.threshold")
+    MemorySize compressionThreshold;
+
+    @ConfigProperty(name = "jfr-datasource.compression.level")
+    int compressionLevel;
+
     @Inject RecordingService recordingService;
 
     @Inject FileSystemService fsService;
 
+    @Inject QueryExecutor queryExecutor;
+
+    @Inject BlockingExecutor blockingExecutor;
+
     @Route(path = "/", methods = HttpMethod.GET)
     void root(RoutingContext context) {
         HttpServerResponse response = context.response();
@@ -87,12 +111,24 @@ public class Datasource {
             methods = HttpMethod.POST,
             produces = {ReactiveRoutes.APPLICATION_JSON})
     void search(RoutingContext context) {
+        queryExecutor.submit(context, () -> handleSearch(context));
+    }
+
+    private void handleSearch(RoutingContext context) {
         HttpServerResponse response = context.response();
         JsonObject body = context.body().asJsonObject();
         try {
             if (body != null && !body.isEmpty()) {
                 LOGGER.info(body.toString());
-                response.end(recordingService.search(new Search(body)));
+                RecordingSnapshot snapshot = recordingService.getSnapshot();
+                Search search = new Search(body);
+                Optional<String> tag = recordingService.getEntityTag(snapshot, search);
+                if (notModified(context, tag)) {
+                    return;
+                }
+                JsonProducer producer = recordingService.search(snapshot, search);
+                tag.ifPresent(t -> response.putHeader("etag", t));
+                ChunkedJsonResponse.send(context, compression(context), queryExecutor, producer);
                 return;
             }
         } catch (Exception e) {
@@ -104,15 +140,34 @@ public class Datasource {
     @Route(
             path = "/query",
             methods = HttpMethod.POST,
-            produces = {ReactiveRoutes.APPLICATION_JSON})
+            produces = {ReactiveRoutes.APPLICATION_JSON, ResponseFormat.DATA_FRAME_MEDIA_TYPE})
     void query(RoutingContext context) {
+        queryExecutor.submit(context, () -> handleQuery(context));
+    }
+
+    private void handleQuery(RoutingContext context) {
         HttpServerResponse response = context.response();
         try {
             JsonObject body = context.body().asJsonObject();
             if (body != null && !body.isEmpty()) {
                 LOGGER.info(body.toString());
-                Query query = new Query(body);
-                response.end(recordingService.query(query));
+                ResponseFormat format =
+                        ResponseFormat.fromContentType(context.getAcceptableContentType());
+                if (format == ResponseFormat.DATA_FRAME) {
+                    response.putHeader("content-type", ResponseFormat.DATA_FRAME_MEDIA_TYPE);
+                }
+                Query query = new Query(body, format);
+                RecordingSnapshot snapshot = recordingService.getSnapshot();
+                Optional<String> tag = recordingService.getEntityTag(snapshot, query);
+                if (notModified(context, tag)) {
+                    return;
+                }
+                tag.ifPresent(t -> response.putHeader("etag", t));
+                ChunkedJsonResponse.send(
+                        context,
+                        compression(context),
+                        queryExecutor,
+                        recordingService.query(snapshot, query));
                 return;
             }
         } catch (Exception e) {
@@ -127,30 +182,36 @@ public class Datasource {
             methods = HttpMethod.POST,
             produces = {"text/plain"})
     void annotations(RoutingContext context) {
-        HttpServerResponse response = context.response();
-        response.end(recordingService.annotations());
+        queryExecutor.submit(context, () -> context.response().end(recordingService.annotations()));
     }
 
     @Route(
             path = "/set",
             methods = HttpMethod.POST,
             produces = {"text/plain"})
-    @Blocking
     void set(RoutingContext context) {
+        blockingExecutor.submit(context, () -> handleSet(context));
+    }
+
+    private void handleSet(RoutingContext context) {
         HttpServerResponse response = context.response();
 
         String file = context.body().asString();
         String filePath = jfrDir + File.separator + file;
+        boolean async = Boolean.parseBoolean(extractQueryParam(context, "async", "false"));
 
-        setFile(filePath, file, response, new StringBuilder());
+        setFile(filePath, file, async, response, new StringBuilder());
     }
 
     @Route(
             path = "/upload",
             methods = HttpMethod.POST,
             produces = {"text/plain"})
-    @Blocking
     void upload(RoutingContext context) {
+        blockingExecutor.submit(context, () -> handleUpload(context));
+    }
+
+    private void handleUpload(RoutingContext context) {
         HttpServerResponse response = context.response();
 
         final StringBuilder responseBuilder = new StringBuilder();
@@ -164,17 +225,146 @@ public class Datasource {
             path = "/load",
             methods = HttpMethod.POST,
             produces = {"text/plain"})
-    @Blocking
     void load(RoutingContext context) {
+        blockingExecutor.submit(context, () -> handleLoad(context));
+    }
+
+    private void handleLoad(RoutingContext context) {
         HttpServerResponse response = context.response();
 
         final StringBuilder responseBuilder = new StringBuilder();
 
         boolean overwrite = Boolean.parseBoolean(extractQueryParam(context, "overwrite", "false"));
+        boolean async = Boolean.parseBoolean(extractQueryParam(context, "async", "false"));
         String lastFile = uploadFiles(context.fileUploads(), responseBuilder, overwrite);
         String filePath = jfrDir + File.separator + lastFile;
 
-        setFile(filePath, lastFile, response, responseBuilder);
+        setFile(filePath, lastFile, async, response, responseBuilder);
+    }
+
+    @Route(
+            path = "/load_status",
+            methods = HttpMethod.GET,
+            produces = {ReactiveRoutes.APPLICATION_JSON})
+    void loadStatus(RoutingContext context) {
+        HttpServerResponse response = context.response();
+
+        String id = extractQueryParam(context, "id", null);
+        Optional<LoadProgress> load = recordingService.getLoadProgress(id);
+        if (load.isPresent()) {
+            response.end(load.get().toJson().encode());
+        } else {
+            response.setStatusCode(404).end();
+        }
+    }
+
+    @Route(
+            path = "/metadata",
+            methods = HttpMethod.GET,
+            produces = {ReactiveRoutes.APPLICATION_JSON})
+    void metadata(RoutingContext context) {
+        HttpServerResponse response = context.response();
+
+        Optional<JsonObject> metadata = recordingService.getMetadata();
+        if (metadata.isPresent()) {
+            response.end(metadata.get().encode());
+        } else {
+            response.setStatusCode(404).end();
+        }
+    }
+
+    @Route(
+            path = "/query_stats",
+            methods = HttpMethod.GET,
+            produces = {ReactiveRoutes.APPLICATION_JSON})
+    void queryStats(RoutingContext context) {
+        context.response().end(recordingService.getQueryStats().encode());
+    }
+
+    @Route(
+            path = "/export",
+            methods = HttpMethod.GET,
+            produces = {ArrowStreamResponse.MEDIA_TYPE})
+    void export(RoutingContext context) {
+        queryExecutor.submit(context, () -> handleExport(context));
+    }
+
+    private void handleExport(RoutingContext context) {
+        HttpServerResponse response = context.response();
+
+        String type = extractQueryParam(context, "type", null);
+        String fields = extractQueryParam(context, "fields", "");
+        try {
+            if (type == null) {
+                throw new InvalidQueryException("type");
+            }
+            Optional<Long> from =
+                    parseExportTime(extractQueryParam(context, "from", null), "from");
+            Optional<Long> to = parseExportTime(extractQueryParam(context, "to", null), "to");
+            List<String> fieldList = new ArrayList<>();
+            for (String field : fields.split(",")) {
+                if (!field.isBlank()) {
+                    fieldList.add(field.trim());
+                }
+            }
+            Optional<ArrowProducer> export = recordingService.export(type, fieldList, from, to);
+            if (export.isPresent()) {
+                ArrowStreamResponse.send(
+                        context, compression(context), queryExecutor, export.get());
+            } else {
+                response.setStatusCode(404).end();
+            }
+        } catch (InvalidQueryException e) {
+            response.setStatusCode(400).end("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Answers with 304 Not Modified if the If-None-Match header of the request lists the entity
+     * tag, compared weakly.
+     *
+     * @return whether the response was sent
+     */
+    private static boolean notModified(RoutingContext context, Optional<String> tag) {
+        String ifNoneMatch = context.request().getHeader("if-none-match");
+        if (tag.isEmpty() || ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = stripWeakPrefix(tag.get());
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || stripWeakPrefix(candidate).equals(opaqueTag)) {
+                context.response().setStatusCode(304).putHeader("etag", tag.get()).end();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeakPrefix(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private ResponseCompression compression(RoutingContext context) {
+        if (!compressionEnabled) {
+            return ResponseCompression.NONE;
+        }
+        return ResponseCompression.negotiate(
+                context.request().getHeader("accept-encoding"),
+                compressionThreshold.asLongValue(),
+                compressionLevel);
+    }
+
+    private static Optional<Long> parseExportTime(String value, String param)
+            throws InvalidQueryException {
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Instant.parse(value).toEpochMilli());
+        } catch (DateTimeParseException e) {
+            throw new InvalidQueryException(param);
+        }
     }
 
     @Route(
@@ -186,6 +376,7 @@ public class Datasource {
 
         try {
             StringBuilder responseBuilder = new StringBuilder();
+            String loadedFile = recordingService.getSnapshot().getFileName();
             for (String filename : listFiles()) {
                 if (filename.equals(loadedFile)) {
                     filename = String.format("**%s**", filename);
@@ -207,6 +398,7 @@ public class Datasource {
     void current(RoutingContext context) {
         HttpServerResponse response = context.response();
 
+        String loadedFile = recordingService.getSnapshot().getFileName();
         LOGGER.info("Current: " + loadedFile);
         response.end(loadedFile + System.lineSeparator());
     }
@@ -215,8 +407,11 @@ public class Datasource {
             path = "/delete_all",
             methods = HttpMethod.DELETE,
             produces = {"text/plain"})
-    @Blocking
     void deleteAll(RoutingContext context) {
+        blockingExecutor.submit(context, () -> handleDeleteAll(context));
+    }
+
+    private void handleDeleteAll(RoutingContext context) {
         HttpServerResponse response = context.response();
 
         final StringBuilder stringBuilder = new StringBuilder();
@@ -226,7 +421,7 @@ public class Datasource {
                 stringBuilder.append("Deleted: " + deletedFile);
                 stringBuilder.append(System.lineSeparator());
             }
-            setLoadedFile(UNSET_FILE);
+            recordingService.unloadAll();
             response.end(stringBuilder.toString());
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
@@ -238,8 +433,11 @@ public class Datasource {
             path = "/delete",
             methods = HttpMethod.DELETE,
             produces = {"text/plain"})
-    @Blocking
     void delete(RoutingContext context) {
+        blockingExecutor.submit(context, () -> handleDelete(context));
+    }
+
+    private void handleDelete(RoutingContext context) {
         HttpServerResponse response = context.response();
 
         String fileName = context.body().asString();
@@ -248,9 +446,7 @@ public class Datasource {
         } else {
             try {
                 deleteFile(fileName);
-                if (fileName.equals(loadedFile)) {
-                    setLoadedFile(UNSET_FILE);
-                }
+                recordingService.unload(fileName);
                 response.setStatusCode(204);
             } catch (FileNotFoundException e) {
                 LOGGER.error(e.getMessage(), e);
@@ -322,22 +518,30 @@ public class Datasource {
         LOGGER.info("Uploaded: " + file);
     }
 
-    private void setLoadedFile(String filename) {
-        this.loadedFile = filename;
-    }
-
     private void setFile(
             String absolutePath,
             String filename,
+            boolean async,
             HttpServerResponse response,
             StringBuilder responseBuilder) {
         try {
-            recordingService.loadEvents(absolutePath);
+            LoadProgress load = recordingService.loadEventsAsync(absolutePath);
+            if (async) {
+                responseBuilder.append("Loading: " + load.getId());
+                responseBuilder.append(System.lineSeparator());
+                response.setStatusCode(202);
+                response.end(responseBuilder.toString());
+                return;
+            }
+            load.getCompletion().join();
             responseBuilder.append("Set: " + filename);
             responseBuilder.append(System.lineSeparator());
-            setLoadedFile(filename);
             response.end(responseBuilder.toString());
-        } catch (IOException e) {
+        } catch (CancellationException e) {
+            LOGGER.info("Loading of " + filename + " was superseded by another request");
+            response.setStatusCode(409);
+            response.end();
+        } catch (IOException | CompletionException e) {
             response.setStatusCode(404);
             response.end();
         }
@@ -354,7 +558,7 @@ public class Datasource {
                     LOGGER.info("Deleted: " + f.getFileSystem().toString());
                 }
             }
-            setLoadedFile(UNSET_FILE);
+            recordingService.unloadAll();
         }
         return deleteFiles;
     }
@@ -366,9 +570,7 @@ public class Datasource {
             if (fsService.deleteIfExists(
                     fsService.pathOf(dir.toAbsolutePath().toString(), filename))) {
                 LOGGER.info("Deleted: " + filename);
-                if (filename.equals(loadedFile)) {
-                    setLoadedFile(UNSET_FILE);
-                }
+                recordingService.unload(filename);
             } else {
                 throw new FileNotFoundException(filename + " does not exist");
             }
@@ -40,6 +40,7 @@ package io.cryostat.jfr.datasource.server;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAccessor;
+import java.util.Optional;
 
 import io.cryostat.jfr.datasource.utils.ArgRunnable;
 import io.cryostat.jfr.datasource.utils.InvalidQueryException;
@@ -52,9 +53,27 @@ public class Query {
     DateTimeFormatter dateFormat = DateTimeFormatter.ISO_INSTANT;
 
     private JsonObject query;
+    private final ResponseFormat format;
 
     public Query(JsonObject query) {
+        this(query, ResponseFormat.SIMPLE_JSON);
+    }
+
+    public Query(JsonObject query, ResponseFormat format) {
         this.query = query;
+        this.format = format;
+    }
+
+    public ResponseFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Whether the timestamps of data frames are delta encoded, which the query requests by setting
+     * {@code timestamps} to {@code delta}.
+     */
+    public boolean isDeltaTimestamps() {
+        return "delta".equals(this.query.getString("timestamps"));
     }
 
     public JsonArray getTargets() {
@@ -62,14 +81,36 @@ public class Query {
     }
 
     public void applyTargets(ArgRunnable<Target> runnable) throws InvalidQueryException {
+        applyTargets(Target.Fields.NONE, runnable);
+    }
+
+    /** @param fields the fields of the event types, which reserved target parameters give way to */
+    public void applyTargets(Target.Fields fields, ArgRunnable<Target> runnable)
+            throws InvalidQueryException {
         JsonArray targets = this.query.getJsonArray("targets");
         for (int i = 0; i < targets.size(); i++) {
             JsonObject target = targets.getJsonObject(i);
-            Target t = new Target(target.getString("target"), target.getString("type"));
+            Target t =
+                    new Target(
+                            target.getString("target"),
+                            target.getString("type"),
+                            target.getString("refId"),
+                            fields);
             runnable.run(t);
         }
     }
 
+    /** Maximum number of points per timeseries, if the query sets one. */
+    public Optional<Integer> getMaxDataPoints() {
+        return Optional.ofNullable(this.query.getInteger("maxDataPoints"));
+    }
+
+    /** Suggested time between points in milliseconds, or 0 if the query does not set one. */
+    public long getIntervalMs() {
+        Long intervalMs = this.query.getLong("intervalMs");
+        return intervalMs == null ? 0 : intervalMs;
+    }
+
     public long getFrom() {
         TemporalAccessor accessor =
                 dateFormat.parse(this.query.getJsonObject("range").getString("from"));
@@ -0,0 +1,161 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+import io.cryostat.jfr.datasource.utils.VirtualThreads;
+
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the work of query routes on a bounded pool, so that scans of large recordings never block
+ * the event loop. A request holds a permit from the moment it is admitted until its response has
+ * ended, which bounds the requests being worked on or waiting to be resumed to the number of
+ * threads plus the queue depth. Requests beyond that are turned away with 429 Too Many Requests.
+ *
+ * <p>If {@code jfr-datasource.virtual-threads.enabled} is set, each request is worked on by a
+ * virtual thread of its own instead, and the permits alone bound how many are in progress.
+ */
+@ApplicationScoped
+public class QueryExecutor implements Executor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryExecutor.class);
+
+    @ConfigProperty(name = "jfr-datasource.query.threads")
+    int threads;
+
+    @ConfigProperty(name = "jfr-datasource.query.queue-depth")
+    int queueDepth;
+
+    @ConfigProperty(name = "jfr-datasource.query.retry-after")
+    int retryAfterSeconds;
+
+    @ConfigProperty(name = "jfr-datasource.virtual-threads.enabled")
+    boolean virtualThreads;
+
+    private ExecutorService executor;
+    private Semaphore permits;
+
+    @PostConstruct
+    void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        Optional<ExecutorService> virtual =
+                virtualThreads ? VirtualThreads.newThreadPerTaskExecutor() : Optional.empty();
+        if (virtual.isPresent()) {
+            this.executor = virtual.get();
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            this.executor =
+                    Executors.newFixedThreadPool(
+                            poolSize,
+                            task -> {
+                                Thread thread =
+                                        new Thread(task, "query-" + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+        }
+        this.permits = new Semaphore(poolSize + Math.max(queueDepth, 0));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the handler of the request on the pool, or answers 429 with a Retry-After header if as
+     * many requests as the pool and its queue can hold are already in progress.
+     */
+    public void submit(RoutingContext context, Runnable handler) {
+        if (!permits.tryAcquire()) {
+            context.response()
+                    .setStatusCode(429)
+                    .putHeader("retry-after", String.valueOf(retryAfterSeconds))
+                    .end("Error: too many concurrent queries");
+            return;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        context.addEndHandler(
+                result -> {
+                    if (released.compareAndSet(false, true)) {
+                        permits.release();
+                    }
+                });
+        try {
+            executor.execute(
+                    () -> {
+                        try {
+                            handler.run();
+                        } catch (RuntimeException e) {
+                            LOGGER.error("Failed to handle query", e);
+                            if (!context.response().ended()) {
+                                context.response().setStatusCode(500).end();
+                            }
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            context.response().setStatusCode(503).end();
+        }
+    }
+
+    /**
+     * Continues the work of an admitted request, such as producing more of a response once the
+     * client has read what was sent so far. Never rejected, as the permits bound the pending work.
+     */
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+}
@@ -43,12 +43,26 @@ import io.vertx.core.json.JsonObject;
 
 public class Search {
     private Optional<String> target;
+    private Optional<String> prefix;
+    private Optional<Integer> limit;
 
     public Search(JsonObject body) {
         this.target = Optional.ofNullable(body.getString("target"));
+        this.prefix = Optional.ofNullable(body.getString("prefix"));
+        this.limit = Optional.ofNullable(body.getInteger("limit"));
     }
 
     public Optional<String> getTarget() {
         return this.target;
     }
+
+    /** Only values starting with this prefix are returned. */
+    public Optional<String> getPrefix() {
+        return this.prefix;
+    }
+
+    /** Maximum number of values to return. */
+    public Optional<Integer> getLimit() {
+        return this.limit;
+    }
 }
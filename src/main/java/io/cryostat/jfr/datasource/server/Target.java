@@ -37,18 +37,36 @@
  */
 package io.cryostat.jfr.datasource.server;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import io.cryostat.jfr.datasource.index.Aggregation;
+import io.cryostat.jfr.datasource.index.Downsampling;
+import io.cryostat.jfr.datasource.index.RangeMode;
 import io.cryostat.jfr.datasource.utils.InvalidQueryException;
 
 public class Target {
     private final String targetIdentifier;
     private final String type;
+    private final Optional<String> refId;
     private final Map<String, Set<String>> targetOptions;
+    private final RangeMode rangeMode;
+    private final Downsampling downsampling;
+    private final Optional<Aggregation> aggregation;
+    private final Optional<Duration> interval;
+    private final List<String> groupBy;
+    private final int limit;
 
     public static final String durationTargetIdentifier = "events.custom.recordingDuration";
     public static final String startTimeTargetIdentifier = "events.custom.startTime";
@@ -67,12 +85,67 @@ public class Target {
         }
     }
 
+    /** Tells whether events of a type have a field of the given name. */
+    @FunctionalInterface
+    public interface Fields {
+        Fields NONE = (eventType, field) -> false;
+
+        boolean has(String eventType, String field);
+    }
+
     private static final String PARAM_SEPARATOR = "&";
 
+    // Marks a reserved parameter, which is needed if the event type has a field of the same name.
+    // Without it, a parameter named like a field of the event type filters on that field.
+    public static final String RESERVED_PREFIX = "$";
+
+    // Reserved parameter selecting how event lifetimes are matched against the query range
+    public static final String RANGE_PARAM = "range";
+    // Reserved parameter selecting how timeseries are reduced to the query's maxDataPoints
+    public static final String DOWNSAMPLE_PARAM = "downsample";
+    // Reserved parameters aggregating timeseries per time bucket, e.g. agg=sum&interval=10s
+    public static final String AGGREGATION_PARAM = "agg";
+    public static final String INTERVAL_PARAM = "interval";
+    // Reserved parameters grouping timeseries by several fields at once and capping the series
+    public static final String GROUP_BY_PARAM = "groupby";
+    public static final String LIMIT_PARAM = "limit";
+
+    private static final Pattern INTERVAL_PATTERN = Pattern.compile("(\\d+)(ms|s|m|h|d)?");
+
     public Target(String target, String type) throws InvalidQueryException {
+        this(target, type, null);
+    }
+
+    public Target(String target, String type, String refId) throws InvalidQueryException {
+        this(target, type, refId, Fields.NONE);
+    }
+
+    /**
+     * @param fields the fields of the event types, which reserved parameters without the {@link
+     *     #RESERVED_PREFIX} do not shadow
+     */
+    public Target(String target, String type, String refId, Fields fields)
+            throws InvalidQueryException {
         this.targetIdentifier = parseTargetIdentifier(target);
         this.targetOptions = parseTargetOptions(target);
+        int typeEnd = targetIdentifier.lastIndexOf('.');
+        String eventType = typeEnd < 0 ? targetIdentifier : targetIdentifier.substring(0, typeEnd);
+        Predicate<String> isField = field -> fields.has(eventType, field);
+        this.rangeMode =
+                parseReservedOption(RANGE_PARAM, RangeMode::fromIdentifier, isField)
+                        .orElse(RangeMode.CONTAINED);
+        this.downsampling =
+                parseReservedOption(DOWNSAMPLE_PARAM, Downsampling::fromIdentifier, isField)
+                        .orElse(Downsampling.LTTB);
+        this.aggregation =
+                parseReservedOption(AGGREGATION_PARAM, Aggregation::fromIdentifier, isField);
+        this.interval = parseReservedOption(INTERVAL_PARAM, Target::parseInterval, isField);
+        this.groupBy = parseGroupBy(target, isField);
+        this.limit =
+                parseReservedOption(LIMIT_PARAM, Target::parseLimit, isField)
+                        .orElse(Integer.MAX_VALUE);
         this.type = type;
+        this.refId = Optional.ofNullable(refId);
     }
 
     public String getTargetIdentifier() {
@@ -83,10 +156,162 @@ public class Target {
         return this.type;
     }
 
+    /** Identifier of the target within its query, which Grafana uses to match up responses. */
+    public Optional<String> getRefId() {
+        return this.refId;
+    }
+
     public Map<String, Set<String>> getTargetOptions() {
         return this.targetOptions;
     }
 
+    /** Defaults to {@link RangeMode#CONTAINED} unless set through the {@code range} parameter. */
+    public RangeMode getRangeMode() {
+        return this.rangeMode;
+    }
+
+    /**
+     * Defaults to {@link Downsampling#LTTB} unless set through the {@code downsample} parameter.
+     */
+    public Downsampling getDownsampling() {
+        return this.downsampling;
+    }
+
+    /** Aggregation applied per time bucket, set through the {@code agg} parameter. */
+    public Optional<Aggregation> getAggregation() {
+        return this.aggregation;
+    }
+
+    /** Width of the aggregation buckets, set through the {@code interval} parameter. */
+    public Optional<Duration> getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * Fields whose combined values key each series, set through the {@code groupby} parameter. If
+     * empty, every option field is grouped by on its own.
+     */
+    public List<String> getGroupBy() {
+        return this.groupBy;
+    }
+
+    /** Maximum number of series per grouping, set through the {@code limit} parameter. */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * The names a reserved parameter can be given by: always with the {@link #RESERVED_PREFIX}, and
+     * without it unless the event type has a field of that name.
+     */
+    private static List<String> reservedNames(String param, Predicate<String> isField) {
+        return isField.test(param)
+                ? List.of(RESERVED_PREFIX + param)
+                : List.of(RESERVED_PREFIX + param, param);
+    }
+
+    /** Removes a reserved parameter from the target options and parses its single value. */
+    private <T> Optional<T> parseReservedOption(
+            String param, Function<String, Optional<T>> parser, Predicate<String> isField)
+            throws InvalidQueryException {
+        Set<String> values = null;
+        for (String name : reservedNames(param, isField)) {
+            Set<String> named = targetOptions.remove(name);
+            if (named == null) {
+                continue;
+            } else if (values == null) {
+                values = named;
+            } else {
+                values.addAll(named);
+            }
+        }
+        if (values == null) {
+            return Optional.empty();
+        }
+        if (values.size() != 1) {
+            throw new InvalidQueryException(param);
+        }
+        String value = values.iterator().next();
+        Optional<T> parsed = parser.apply(value);
+        if (parsed.isEmpty()) {
+            throw new InvalidQueryException(param + "=" + value);
+        }
+        return parsed;
+    }
+
+    // Read from the raw target, as option sets do not keep the order the fields are listed in
+    private List<String> parseGroupBy(String target, Predicate<String> isField)
+            throws InvalidQueryException {
+        List<String> names = new ArrayList<>();
+        for (String name : reservedNames(GROUP_BY_PARAM, isField)) {
+            if (targetOptions.remove(name) != null) {
+                names.add(name);
+            }
+        }
+        if (names.isEmpty()) {
+            return List.of();
+        }
+        List<String> fields = new ArrayList<>();
+        target = target.replaceAll("\\\\", ""); // Remove escapes
+        for (String option : target.substring(target.indexOf("?") + 1).split(PARAM_SEPARATOR)) {
+            int equalSignIndex = option.indexOf(ParamOperator.EQUAL.getIdentifier());
+            if (equalSignIndex < 0 || !names.contains(option.substring(0, equalSignIndex))) {
+                continue;
+            }
+            for (String field : option.substring(equalSignIndex + 1).split(",")) {
+                if (!field.isEmpty() && !fields.contains(field)) {
+                    fields.add(field);
+                }
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new InvalidQueryException(GROUP_BY_PARAM);
+        }
+        return fields;
+    }
+
+    private static Optional<Integer> parseLimit(String value) {
+        try {
+            int limit = Integer.parseInt(value);
+            return limit > 0 ? Optional.of(limit) : Optional.empty();
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    // Rejects intervals whose nanoseconds, which buckets are computed in, do not fit a long
+    private static Optional<Duration> parseInterval(String value) {
+        Matcher matcher = INTERVAL_PATTERN.matcher(value);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        String unit = matcher.group(2) == null ? "ms" : matcher.group(2);
+        Duration interval;
+        try {
+            long amount = Long.parseLong(matcher.group(1));
+            switch (unit) {
+                case "s":
+                    interval = Duration.ofSeconds(amount);
+                    break;
+                case "m":
+                    interval = Duration.ofMinutes(amount);
+                    break;
+                case "h":
+                    interval = Duration.ofHours(amount);
+                    break;
+                case "d":
+                    interval = Duration.ofDays(amount);
+                    break;
+                default:
+                    interval = Duration.ofMillis(amount);
+            }
+            interval.toNanos();
+        } catch (NumberFormatException | ArithmeticException e) {
+            return Optional.empty();
+        }
+        return interval.isZero() ? Optional.empty() : Optional.of(interval);
+    }
+
     private String parseTargetIdentifier(String target) {
         final int idx = target.indexOf("?");
         return idx >= 0 ? target.substring(0, target.indexOf("?")) : target;
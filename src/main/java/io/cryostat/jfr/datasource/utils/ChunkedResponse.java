@@ -0,0 +1,223 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import java.util.concurrent.Executor;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends a response body as it is produced. Bodies smaller than {@link #CHUNK_SIZE} are sent in one
+ * piece with a content length. Larger ones are sent with chunked transfer encoding, and production
+ * is suspended while the write queue of the response is full, so a slow client does not make the
+ * server buffer the whole body.
+ *
+ * <p>Bodies are compressed if their size reaches the threshold of the {@link ResponseCompression}.
+ * Chunked bodies are compressed one chunk at a time, so a compression threshold above the chunk
+ * size has the same effect as one equal to it.
+ *
+ * <p>If the connection is closed or fails while production is suspended, the resources of the
+ * response are released as soon as that is noticed rather than when production would resume.
+ */
+public abstract class ChunkedResponse {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkedResponse.class);
+
+    // Buffered output is written to the response once it reaches this size
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private final HttpServerResponse response;
+    private final ResponseCompression compression;
+    private final Executor executor;
+    // Set once the first chunk is written, if the body is compressed
+    private ResponseCompression.Compressor compressor;
+    // Set once the body is complete or its resources are released, guarded by this
+    private boolean finished;
+
+    /**
+     * @param executor resumes production once the client has caught up, so that it does not run on
+     *     the event loop
+     */
+    protected ChunkedResponse(
+            RoutingContext context, ResponseCompression compression, Executor executor) {
+        this.response = context.response();
+        this.compression = compression;
+        this.executor = executor;
+        if (compression.getEncoding() != null) {
+            response.putHeader("vary", "accept-encoding");
+        }
+        // The routing context owns the close and exception handlers of the response, and calls its
+        // end handlers with a failure from either
+        context.addEndHandler(
+                result -> {
+                    if (result.failed()) {
+                        executor.execute(this::abandon);
+                    }
+                });
+    }
+
+    /**
+     * Buffers the next piece of the body, which should be small enough to be produced without
+     * holding up other requests for long.
+     *
+     * @return whether there is more to produce
+     */
+    protected abstract boolean produce();
+
+    /** Number of bytes buffered since the last {@link #take()}. */
+    protected abstract int size();
+
+    /**
+     * Hands over the buffered bytes, usually in a pooled buffer, and empties the buffer. The bytes
+     * are released once they have been sent.
+     */
+    protected abstract ByteBuf take();
+
+    /** Discards the buffered bytes, once the response is complete or has failed. */
+    protected abstract void release();
+
+    protected synchronized void resume() {
+        if (finished) {
+            return;
+        }
+        response.drainHandler(null);
+        try {
+            while (!response.closed()) {
+                boolean more = produce();
+                if (!more) {
+                    ByteBuf body = take();
+                    if (!response.isChunked() && compression.appliesTo(body.readableBytes())) {
+                        startCompression();
+                    }
+                    send(body, true);
+                    finished = true;
+                    return;
+                }
+                if (size() >= CHUNK_SIZE) {
+                    if (!response.isChunked()) {
+                        response.setChunked(true);
+                        if (compression.appliesTo(CHUNK_SIZE)) {
+                            startCompression();
+                        }
+                    }
+                    send(take(), false);
+                    if (response.writeQueueFull()) {
+                        response.drainHandler(v -> executor.execute(this::resume));
+                        return;
+                    }
+                }
+            }
+            // The connection was closed before the whole body was sent
+            cleanUp();
+        } catch (RuntimeException e) {
+            cleanUp();
+            LOGGER.error("Failed to produce response", e);
+            if (response.headWritten()) {
+                // The status is already sent, so the client can only tell by the broken stream
+                response.reset();
+            } else {
+                response.headers().remove("content-encoding");
+                response.setStatusCode(500).end();
+            }
+        }
+    }
+
+    private void startCompression() {
+        response.putHeader("content-encoding", compression.getEncoding());
+        compressor = compression.start();
+    }
+
+    /**
+     * Writes the given bytes as a chunk, or as the end of the body if they are the last. Vert.x
+     * never releases the buffers it is handed, so uncompressed bytes are passed on without a copy
+     * and released once written.
+     */
+    private void send(ByteBuf bytes, boolean last) {
+        if (compressor != null) {
+            Buffer compressed;
+            try {
+                compressed = last ? compressor.finish(bytes) : compressor.compress(bytes);
+            } finally {
+                bytes.release();
+            }
+            if (last) {
+                compressor = null;
+                response.end(compressed);
+            } else if (compressed.length() > 0) {
+                response.write(compressed);
+            }
+            return;
+        }
+        Handler<AsyncResult<Void>> release = result -> bytes.release();
+        try {
+            if (last) {
+                response.end(Buffer.buffer(bytes), release);
+            } else if (bytes.isReadable()) {
+                response.write(Buffer.buffer(bytes), release);
+            } else {
+                bytes.release();
+            }
+        } catch (IllegalStateException e) {
+            // The response was closed or ended before the bytes could be queued
+            bytes.release();
+            throw e;
+        }
+    }
+
+    private synchronized void abandon() {
+        if (!finished) {
+            cleanUp();
+        }
+    }
+
+    private void cleanUp() {
+        finished = true;
+        release();
+        if (compressor != null) {
+            compressor.close();
+            compressor = null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * The content encoding of a response, negotiated from the Accept-Encoding header of its request.
+ * Only bodies of at least a threshold size are compressed.
+ */
+public class ResponseCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /** Leaves every response uncompressed. */
+    public static final ResponseCompression NONE = new ResponseCompression(null, 0, 0);
+
+    private final String encoding;
+    private final long threshold;
+    private final int level;
+
+    private ResponseCompression(String encoding, long threshold, int level) {
+        this.encoding = encoding;
+        this.threshold = threshold;
+        this.level = level;
+    }
+
+    /**
+     * Picks the encoding the client prefers among {@code gzip} and {@code deflate}, preferring
+     * {@code gzip} if both are equally acceptable.
+     *
+     * @param acceptEncoding the Accept-Encoding header of the request, if any
+     * @param threshold the size in bytes from which bodies are compressed
+     * @param level the {@link java.util.zip.Deflater} compression level
+     */
+    public static ResponseCompression negotiate(String acceptEncoding, long threshold, int level) {
+        if (acceptEncoding == null) {
+            return NONE;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] tokens = coding.split(";");
+            double quality = 1;
+            for (int i = 1; i < tokens.length; i++) {
+                String parameter = tokens[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            switch (tokens[0].trim().toLowerCase(Locale.ROOT)) {
+                case GZIP:
+                    gzip = quality;
+                    break;
+                case DEFLATE:
+                    deflate = quality;
+                    break;
+                case "*":
+                    any = quality;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return new ResponseCompression(GZIP, threshold, level);
+        } else if (deflate > 0) {
+            return new ResponseCompression(DEFLATE, threshold, level);
+        }
+        return NONE;
+    }
+
+    /** The negotiated content encoding, or {@code null} if responses are not compressed. */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /** Whether a body of the given length in bytes is compressed. */
+    public boolean appliesTo(long length) {
+        return encoding != null && length >= threshold;
+    }
+
+    Compressor start() {
+        return new Compressor(encoding, level);
+    }
+
+    /** Compresses a body piece by piece, returning what can be sent so far after each piece. */
+    static final class Compressor {
+
+        private final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        private final DeflaterOutputStream stream;
+
+        private Compressor(String encoding, int level) {
+            try {
+                // The streams own their deflater and end it when closed
+                this.stream =
+                        GZIP.equals(encoding)
+                                ? new GZIPOutputStream(sink) {
+                                    {
+                                        def.setLevel(level);
+                                    }
+                                }
+                                : new DeflaterOutputStream(sink) {
+                                    {
+                                        def.setLevel(level);
+                                    }
+                                };
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Buffer compress(ByteBuf input) {
+            try {
+                input.readBytes(stream, input.readableBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return drain();
+        }
+
+        /** Compresses the last piece of the body and releases the compressor. */
+        Buffer finish(ByteBuf input) {
+            try {
+                input.readBytes(stream, input.readableBytes());
+                stream.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                close();
+            }
+            return drain();
+        }
+
+        void close() {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Only the in-memory sink is written to
+            }
+        }
+
+        private Buffer drain() {
+            Buffer output = Buffer.buffer(sink.toByteArray());
+            sink.reset();
+            return output;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class QueryResultCacheTest {
+
+    // Entries of up to a quarter of the budget are kept, so five of these fill it
+    private static final int MAX_BYTES = 100;
+    private static final int ENTRY_BYTES = 20;
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        QueryResultCache cache = new QueryResultCache(MAX_BYTES);
+        assertTrue(cache.isEnabled());
+        for (String key : List.of("a", "b", "c", "d", "e")) {
+            put(cache, key, ENTRY_BYTES);
+        }
+        for (String key : List.of("a", "b", "c", "d", "e")) {
+            assertTrue(cache.get(key).isPresent(), key);
+        }
+
+        // Using the oldest entry makes the next oldest the first to go
+        assertTrue(cache.get("a").isPresent());
+        put(cache, "f", ENTRY_BYTES);
+        assertFalse(cache.get("b").isPresent());
+        for (String key : List.of("a", "c", "d", "e", "f")) {
+            assertTrue(cache.get(key).isPresent(), key);
+        }
+
+        // A larger entry pushes out as many of the least recently used as it needs
+        put(cache, "g", MAX_BYTES / 4);
+        assertFalse(cache.get("a").isPresent());
+        assertFalse(cache.get("c").isPresent());
+        for (String key : List.of("d", "e", "f", "g")) {
+            assertTrue(cache.get(key).isPresent(), key);
+        }
+    }
+
+    @Test
+    public void testReplacesEntry() {
+        QueryResultCache cache = new QueryResultCache(MAX_BYTES);
+        for (String key : List.of("a", "b", "c", "d", "e")) {
+            put(cache, key, ENTRY_BYTES);
+        }
+        // Replacing an entry only accounts for the difference in size
+        put(cache, "a", ENTRY_BYTES);
+        for (String key : List.of("a", "b", "c", "d", "e")) {
+            assertTrue(cache.get(key).isPresent(), key);
+        }
+    }
+
+    @Test
+    public void testKeepsPieces() {
+        QueryResultCache cache = new QueryResultCache(MAX_BYTES);
+        byte[] first = new byte[3];
+        byte[] second = new byte[4];
+        QueryResultCache.Recorder recorder = cache.record("a");
+        recorder.add(first);
+        recorder.add(second);
+        // Nothing is kept before the response is complete
+        assertFalse(cache.get("a").isPresent());
+        recorder.complete();
+
+        List<byte[]> pieces = cache.get("a").orElseThrow();
+        assertEquals(2, pieces.size());
+        assertSame(first, pieces.get(0));
+        assertSame(second, pieces.get(1));
+    }
+
+    @Test
+    public void testSkipsLargeResponses() {
+        QueryResultCache cache = new QueryResultCache(MAX_BYTES);
+        QueryResultCache.Recorder recorder = cache.record("a");
+        recorder.add(new byte[MAX_BYTES / 4]);
+        assertTrue(recorder.isRecording());
+        recorder.add(new byte[1]);
+        assertFalse(recorder.isRecording());
+        recorder.complete();
+        assertFalse(cache.get("a").isPresent());
+    }
+
+    @Test
+    public void testCountsHits() {
+        QueryResultCache cache = new QueryResultCache(MAX_BYTES);
+        put(cache, "a", ENTRY_BYTES);
+        assertTrue(cache.get("a").isPresent());
+        assertFalse(cache.get("b").isPresent());
+        assertTrue(cache.get("a").isPresent());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testClear() {
+        QueryResultCache cache = new QueryResultCache(MAX_BYTES);
+        for (String key : List.of("a", "b", "c", "d", "e")) {
+            put(cache, key, ENTRY_BYTES);
+        }
+        cache.clear();
+        assertFalse(cache.get("a").isPresent());
+
+        // and the budget is available again in full
+        for (String key : List.of("f", "g", "h", "i", "j")) {
+            put(cache, key, ENTRY_BYTES);
+        }
+        for (String key : List.of("f", "g", "h", "i", "j")) {
+            assertTrue(cache.get(key).isPresent(), key);
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        assertFalse(new QueryResultCache(0).isEnabled());
+    }
+
+    private static void put(QueryResultCache cache, String key, int size) {
+        QueryResultCache.Recorder recorder = cache.record(key);
+        recorder.add(new byte[size]);
+        recorder.complete();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class DownsamplingTest {
+
+    private static final int ROWS = 1_000;
+
+    private final long[] startTimes = new long[ROWS];
+    private final double[] values = new double[ROWS];
+    private final DoubleColumn column;
+    private final EventTable table;
+    private final RowSet all = RowSet.range(0, ROWS);
+
+    public DownsamplingTest() {
+        Random random = new Random(13);
+        for (int row = 0; row < ROWS; row++) {
+            startTimes[row] = row * 1_000_000L + random.nextInt(1_000_000);
+            values[row] = Math.sin(row / 50.0) + random.nextGaussian() * 0.01;
+        }
+        // A spike and a gap which both must survive downsampling
+        values[437] = 100;
+        values[612] = -100;
+        values[800] = Double.NaN;
+        column = new DoubleColumn("value", values);
+        table = EventTable.of("test.Event", startTimes, startTimes, Map.of(), field -> false);
+    }
+
+    @Test
+    public void testUnreduced() {
+        for (Downsampling downsampling : Downsampling.values()) {
+            assertSame(all, downsampling.apply(table, column, all, ROWS, 0));
+        }
+        assertSame(all, Downsampling.NONE.apply(table, column, all, 10, 0));
+        // Dropping the row without a value is enough to fit
+        assertEquals(ROWS - 1, Downsampling.LTTB.apply(table, column, all, ROWS - 1, 0).size());
+    }
+
+    @Test
+    public void testLttb() {
+        for (int maxPoints : new int[] {3, 10, 97, 500}) {
+            int[] sampled = Downsampling.LTTB.apply(table, column, all, maxPoints, 0).toArray();
+            assertEquals(maxPoints, sampled.length);
+            assertEquals(0, sampled[0]);
+            assertEquals(ROWS - 1, sampled[sampled.length - 1]);
+            assertAscendingWithValues(sampled);
+            if (maxPoints >= 10) {
+                assertContains(sampled, 437);
+                assertContains(sampled, 612);
+            }
+        }
+        // Too few points for a triangle keep the ends
+        assertArrayEquals(
+                new int[] {0, ROWS - 1},
+                Downsampling.LTTB.apply(table, column, all, 2, 0).toArray());
+    }
+
+    @Test
+    public void testMinMax() {
+        for (int maxPoints : new int[] {2, 3, 10, 100, 501}) {
+            int[] sampled = Downsampling.MINMAX.apply(table, column, all, maxPoints, 0).toArray();
+            assertTrue(sampled.length <= maxPoints, maxPoints + ": " + sampled.length);
+            assertAscendingWithValues(sampled);
+            assertContains(sampled, 437);
+            assertContains(sampled, 612);
+        }
+
+        // Buckets are no narrower than the interval, so a wide one leaves the extremes only
+        long interval = Long.MAX_VALUE / 2;
+        int[] sampled = Downsampling.MINMAX.apply(table, column, all, 100, interval).toArray();
+        assertArrayEquals(new int[] {437, 612}, sampled);
+    }
+
+    @Test
+    public void testSelectedRows() {
+        // Every third row, as selected by an overlap lookup
+        int[] selected = new int[ROWS / 3];
+        Arrays.setAll(selected, i -> i * 3);
+        int[] sampled =
+                Downsampling.MINMAX.apply(table, column, RowSet.of(selected), 50, 0).toArray();
+        assertAscendingWithValues(sampled);
+        for (int row : sampled) {
+            assertEquals(0, row % 3);
+        }
+
+        // Fewer points than a bucket needs keep the first rows with a value
+        assertArrayEquals(
+                new int[] {0}, Downsampling.LTTB.apply(table, column, all, 1, 0).toArray());
+        assertEquals(0, Downsampling.MINMAX.apply(table, column, all, 0, 0).size());
+    }
+
+    private void assertAscendingWithValues(int[] rows) {
+        for (int i = 0; i < rows.length; i++) {
+            assertTrue(!Double.isNaN(values[rows[i]]), "row " + rows[i] + " has no value");
+            assertTrue(i == 0 || rows[i - 1] < rows[i], "rows out of order at " + i);
+        }
+    }
+
+    private static void assertContains(int[] rows, int row) {
+        assertTrue(Arrays.stream(rows).anyMatch(r -> r == row), "row " + row + " was dropped");
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class IntervalIndexTest {
+
+    @Test
+    public void testEmpty() {
+        IntervalIndex index = new IntervalIndex(new long[0]);
+        assertArrayEquals(new int[0], index.selectEndingAtOrAfter(0, Long.MIN_VALUE));
+        assertArrayEquals(new int[0], index.selectEndingAtOrAfter(0, 0));
+    }
+
+    @Test
+    public void testBoundaries() {
+        long[] endTimes = {10, 20, 30, 20, 10};
+        IntervalIndex index = new IntervalIndex(endTimes);
+        // Rows ending exactly at the start of the range overlap it
+        assertArrayEquals(new int[] {1, 2, 3}, index.selectEndingAtOrAfter(5, 20));
+        assertArrayEquals(new int[] {2}, index.selectEndingAtOrAfter(5, 21));
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, index.selectEndingAtOrAfter(5, 10));
+        assertArrayEquals(new int[0], index.selectEndingAtOrAfter(5, 31));
+        // The limit row itself is excluded
+        assertArrayEquals(new int[] {1}, index.selectEndingAtOrAfter(2, 20));
+        assertArrayEquals(new int[0], index.selectEndingAtOrAfter(0, Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testMultipleBlocks() {
+        Random random = new Random(11);
+        // Sizes around powers of two of the block count, including a partial last block
+        for (int size : new int[] {15, 16, 17, 33, 16 * 16, 16 * 17 + 3, 5_000}) {
+            long[] endTimes = new long[size];
+            for (int row = 0; row < size; row++) {
+                // Mostly short events with a few long ones, as in real recordings
+                endTimes[row] = row * 10L + (random.nextInt(20) == 0 ? random.nextInt(5_000) : 5);
+            }
+            IntervalIndex index = new IntervalIndex(endTimes);
+            for (int i = 0; i < 200; i++) {
+                int limit = random.nextInt(size + 1);
+                long from = random.nextInt(size * 10 + 5_000);
+                assertArrayEquals(
+                        scan(endTimes, limit, from), index.selectEndingAtOrAfter(limit, from));
+            }
+            assertArrayEquals(
+                    scan(endTimes, size, Long.MIN_VALUE),
+                    index.selectEndingAtOrAfter(size, Long.MIN_VALUE));
+            assertArrayEquals(new int[0], index.selectEndingAtOrAfter(size, Long.MAX_VALUE));
+        }
+    }
+
+    private static int[] scan(long[] endTimes, int limit, long from) {
+        return IntStream.range(0, limit).filter(row -> endTimes[row] >= from).toArray();
+    }
+}
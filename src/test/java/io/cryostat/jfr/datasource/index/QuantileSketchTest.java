@@ -0,0 +1,144 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+import org.junit.jupiter.api.Test;
+
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.001, 0.01, 0.25, 0.5, 0.75, 0.9, 0.99, 1};
+
+    @Test
+    public void testEmpty() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(Double.NaN);
+        assertEquals(0, sketch.getCount());
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+    }
+
+    @Test
+    public void testAccuracyOfLogNormalValues() {
+        Random random = new Random(42);
+        assertAccurate(sample(100_000, () -> Math.exp(3 * random.nextGaussian())));
+    }
+
+    @Test
+    public void testAccuracyOfMixedSigns() {
+        Random random = new Random(7);
+        assertAccurate(
+                sample(
+                        50_000,
+                        () -> {
+                            double value = random.nextGaussian() * 1e6;
+                            // Zeros are counted apart from both signs
+                            return random.nextInt(10) == 0 ? 0 : value;
+                        }));
+    }
+
+    @Test
+    public void testAccuracyAcrossMagnitudes() {
+        // Values far apart make the bucket store grow at both ends
+        double[] values = new double[2_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.pow(10, 12 - (i % 20)) * (1 + i % 7);
+        }
+        assertAccurate(values);
+    }
+
+    @Test
+    public void testMergeEqualsSingleSketch() {
+        Random random = new Random(3);
+        double[] values = sample(30_000, () -> random.nextDouble() * 1000 - 100);
+        QuantileSketch whole = new QuantileSketch();
+        QuantileSketch[] parts = {new QuantileSketch(), new QuantileSketch(), new QuantileSketch()};
+        for (int i = 0; i < values.length; i++) {
+            whole.add(values[i]);
+            // Uneven parts, so that their bucket ranges differ
+            parts[i % 7 == 0 ? 0 : values[i] < 0 ? 1 : 2].add(values[i]);
+        }
+        QuantileSketch merged = new QuantileSketch();
+        for (QuantileSketch part : parts) {
+            merged.merge(part);
+        }
+        merged.merge(new QuantileSketch());
+
+        assertEquals(whole.getCount(), merged.getCount());
+        for (double quantile : QUANTILES) {
+            assertEquals(whole.getQuantile(quantile), merged.getQuantile(quantile));
+        }
+        assertAccurate(values, merged);
+    }
+
+    private static double[] sample(int n, DoubleSupplier supplier) {
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = supplier.getAsDouble();
+        }
+        return values;
+    }
+
+    private static void assertAccurate(double[] values) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (double value : values) {
+            sketch.add(value);
+        }
+        assertAccurate(values, sketch);
+    }
+
+    /** Compares the sketch against the exact quantiles, which are ranks into the sorted values. */
+    private static void assertAccurate(double[] values, QuantileSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        assertEquals(sorted.length, sketch.getCount());
+        for (double quantile : QUANTILES) {
+            double exact = sorted[(int) (quantile * (sorted.length - 1))];
+            double estimate = sketch.getQuantile(quantile);
+            double error = Math.abs(estimate - exact);
+            assertTrue(
+                    error <= QuantileSketch.RELATIVE_ACCURACY * Math.abs(exact) * (1 + 1e-9),
+                    "quantile " + quantile + ": " + estimate + " for " + exact);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class RollupTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testBuckets() {
+        Random random = new Random(5);
+        int n = 10_000;
+        long[] startTimes = new long[n];
+        double[] values = new double[n];
+        long time = 1_663_785_541_195_000_000L;
+        for (int row = 0; row < n; row++) {
+            // Several rows per second, some at the same time, and some gaps of whole buckets
+            time += random.nextInt(8) == 0 ? 0 : random.nextInt(400_000_000);
+            if (random.nextInt(500) == 0) {
+                time += random.nextInt(1_200) * SECOND;
+            }
+            startTimes[row] = time;
+            values[row] = random.nextInt(10) == 0 ? Double.NaN : random.nextGaussian();
+        }
+
+        Rollup[] rollups = Rollup.build(startTimes, new DoubleColumn("value", values));
+        assertEquals(Rollup.RESOLUTIONS.length, rollups.length);
+        for (Rollup rollup : rollups) {
+            long resolution = rollup.getResolution();
+            assertEquals(0, rollup.getFirstRow(0));
+            assertEquals(n, rollup.getEndRow(rollup.size() - 1));
+            for (int bucket = 0; bucket < rollup.size(); bucket++) {
+                int first = rollup.getFirstRow(bucket);
+                int end = rollup.getEndRow(bucket);
+                long start = Math.floorDiv(startTimes[first], resolution);
+                long valued = 0;
+                double sum = 0;
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int row = first; row < end; row++) {
+                    assertEquals(start, Math.floorDiv(startTimes[row], resolution));
+                    if (!Double.isNaN(values[row])) {
+                        valued++;
+                        sum += values[row];
+                        min = Math.min(values[row], min);
+                        max = Math.max(values[row], max);
+                    }
+                }
+                if (end < n) {
+                    assertNotEquals(start, Math.floorDiv(startTimes[end], resolution));
+                }
+                assertEquals(valued, rollup.getValued(bucket));
+                assertEquals(sum, rollup.getSum(bucket), 1e-9 * Math.max(1, valued));
+                assertEquals(min, rollup.getMin(bucket));
+                assertEquals(max, rollup.getMax(bucket));
+            }
+        }
+    }
+
+    @Test
+    public void testBucketOf() {
+        long[] startTimes = new long[2_000];
+        for (int row = 0; row < startTimes.length; row++) {
+            // Runs of rows of varying length per second, including single row buckets
+            startTimes[row] = (row * row / 300) * SECOND + row;
+        }
+        Rollup rollup = Rollup.build(startTimes, new DoubleColumn("value", new double[2_000]))[0];
+        int bucket = 0;
+        for (int row = 0; row < startTimes.length; row++) {
+            if (row == rollup.getEndRow(bucket)) {
+                bucket++;
+            }
+            assertEquals(bucket, rollup.bucketOf(row, 0));
+            assertEquals(bucket, rollup.bucketOf(row, bucket));
+            assertEquals(bucket, rollup.bucketOf(row, bucket / 2));
+        }
+    }
+
+    @Test
+    public void testRollupOfInterval() {
+        long[] startTimes = {0, SECOND, 61 * SECOND, 700 * SECOND};
+        double[] values = {1, 2, 3, 4};
+        EventTable table =
+                EventTable.of(
+                        "test.Event",
+                        startTimes,
+                        startTimes,
+                        Map.of(
+                                "value", new DoubleColumn("value", values),
+                                "other", new DoubleColumn("other", values)),
+                        "value"::equals);
+        Column column = table.getColumn("value").get();
+
+        // The coarsest resolution which evenly divides the interval is used
+        assertEquals(600 * SECOND, table.getRollup(column, 1_200 * SECOND).getResolution());
+        assertEquals(60 * SECOND, table.getRollup(column, 120 * SECOND).getResolution());
+        assertEquals(10 * SECOND, table.getRollup(column, 30 * SECOND).getResolution());
+        assertEquals(SECOND, table.getRollup(column, 3 * SECOND).getResolution());
+        assertNull(table.getRollup(column, SECOND / 2));
+        assertNull(table.getRollup(column, 3 * SECOND / 2));
+        assertNull(table.getRollup(table.getColumn("other").get(), 60 * SECOND));
+    }
+}
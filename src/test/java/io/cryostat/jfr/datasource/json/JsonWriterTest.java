@@ -0,0 +1,366 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.vertx.core.json.JsonArray;
+import org.junit.jupiter.api.Test;
+
+public class JsonWriterTest {
+
+    @Test
+    public void testDoubleBoundaries() {
+        double[] values = {
+            0.0,
+            Double.MIN_VALUE,
+            Double.MIN_NORMAL,
+            Double.MAX_VALUE,
+            // Double.toString switches to computerized scientific notation below 10^-3
+            1e-3,
+            Math.nextUp(1e-3),
+            Math.nextDown(1e-3),
+            0.00123,
+            // and at 10^7 and above
+            1e7,
+            Math.nextUp(1e7),
+            Math.nextDown(1e7),
+            9999999.0,
+            9999999.5,
+            1.0,
+            0.1,
+            0.5,
+            1.0 / 3,
+            2.0 / 3,
+            100.0,
+            123456.789,
+            // 15 significant digits, the most which are written without Double.toString
+            1.23456789012345,
+            123456.789012345,
+            // and more than 15
+            1.234567890123456,
+            0.1 + 0.2,
+            Math.PI,
+            Math.E,
+            (double) (1L << 53),
+            1e15,
+            1e-10
+        };
+        for (double value : values) {
+            assertDoubleWritten(value);
+            assertDoubleWritten(-value);
+        }
+    }
+
+    @Test
+    public void testNegativeZero() {
+        assertEquals("-0.0", write(w -> w.value(-0.0)));
+        assertEquals("0.0", write(w -> w.value(0.0)));
+    }
+
+    @Test
+    public void testRandomDoubles() {
+        Random random = new Random(17);
+        for (int i = 0; i < 200_000; i++) {
+            double value;
+            switch (i % 4) {
+                case 0:
+                    // Any double
+                    value = Double.longBitsToDouble(random.nextLong());
+                    break;
+                case 1:
+                    // Around the plain range
+                    value = Math.pow(10, random.nextDouble() * 12 - 5);
+                    break;
+                case 2:
+                    // Short decimals, as converted from recorded quantities
+                    value = random.nextInt(1_000_000) / Math.pow(10, random.nextInt(10));
+                    break;
+                default:
+                    value = random.nextInt(100_000_000) / 1000.0;
+                    break;
+            }
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            assertDoubleWritten(value);
+            assertDoubleWritten(-value);
+        }
+    }
+
+    @Test
+    public void testNonFiniteDoubles() {
+        assertEquals(
+                "[null,null,null]",
+                write(
+                        w ->
+                                w.beginArray()
+                                        .value(Double.NaN)
+                                        .value(Double.POSITIVE_INFINITY)
+                                        .value(Double.NEGATIVE_INFINITY)
+                                        .endArray()));
+    }
+
+    @Test
+    public void testLongs() {
+        long[] values = {0, 1, -1, 9, 10, -10, Long.MAX_VALUE, Long.MIN_VALUE, -Long.MAX_VALUE};
+        for (long value : values) {
+            assertEquals(Long.toString(value), write(w -> w.value(value)));
+        }
+    }
+
+    @Test
+    public void testEscapesControlCharacters() {
+        StringBuilder controls = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            controls.append(c);
+        }
+        assertEquals(
+                "\"\\u0000\\u0001\\u0002\\u0003\\u0004\\u0005\\u0006\\u0007"
+                        + "\\b\\t\\n\\u000B\\f\\r\\u000E\\u000F"
+                        + "\\u0010\\u0011\\u0012\\u0013\\u0014\\u0015\\u0016\\u0017"
+                        + "\\u0018\\u0019\\u001A\\u001B\\u001C\\u001D\\u001E\\u001F\"",
+                write(w -> w.value(controls.toString())));
+        assertEquals("\"a\\\"b\\\\c/d\u007F\"", write(w -> w.value("a\"b\\c/d\u007F")));
+    }
+
+    @Test
+    public void testNonAsciiCharacters() {
+        // Surrogate pairs are written as one code point, also when next to an escape
+        String emoji = "\uD83D\uDE00";
+        assertEquals("\"" + emoji + "\"", write(w -> w.value(emoji)));
+        assertEquals(
+                "\"\\n" + emoji + "\\t" + emoji + "\"",
+                write(w -> w.value("\n" + emoji + "\t" + emoji)));
+        assertEquals(4, writeBytes(w -> w.value(emoji)).length - 2);
+
+        // Line and paragraph separators are valid in JSON strings, and are not escaped
+        assertEquals("\"a\u2028b\u2029c\"", write(w -> w.value("a\u2028b\u2029c")));
+        assertEquals("\"\u00E9\u4E2D\"", write(w -> w.value("\u00E9\u4E2D")));
+    }
+
+    @Test
+    public void testMatchesJsonArray() {
+        String[] strings = {
+            "", "plain", "\"quoted\"", "a\\b", "\u0000\u001F\b\f", "\uD83D\uDE00\u2028"
+        };
+        double[] doubles = {0.0, -0.0, 1e-3, 1e-4, 1e7, 9999999.0, 0.1 + 0.2, -123.456};
+        JsonArray expected = new JsonArray();
+        JsonWriter writer = new JsonWriter();
+        writer.beginArray();
+        for (String string : strings) {
+            expected.add(string);
+            writer.value(string);
+        }
+        for (double value : doubles) {
+            expected.add(value);
+            writer.value(value);
+        }
+        expected.add(Long.MIN_VALUE).addNull();
+        writer.value(Long.MIN_VALUE).nullValue().endArray();
+        assertEquals(expected.encode(), toString(writer.take()));
+    }
+
+    @Test
+    public void testSeparators() {
+        assertEquals(
+                "{\"a\":[1,[],{}],\"b\":{\"c\":null},\"d\":\"e\"}",
+                write(
+                        w ->
+                                w.beginObject()
+                                        .name("a")
+                                        .beginArray()
+                                        .value(1)
+                                        .beginArray()
+                                        .endArray()
+                                        .beginObject()
+                                        .endObject()
+                                        .endArray()
+                                        .name("b")
+                                        .beginObject()
+                                        .name("c")
+                                        .nullValue()
+                                        .endObject()
+                                        .name("d")
+                                        .value("e")
+                                        .endObject()));
+
+        // Deeper than the initial nesting capacity
+        JsonWriter writer = new JsonWriter();
+        for (int i = 0; i < 40; i++) {
+            writer.beginArray().value(i);
+        }
+        for (int i = 0; i < 40; i++) {
+            writer.endArray();
+        }
+        String json = toString(writer.take());
+        assertTrue(json.startsWith("[0,[1,[2,"));
+        assertTrue(json.endsWith(",[39" + "]".repeat(40)));
+    }
+
+    @Test
+    public void testTakeHandsOverBuffer() {
+        RecordingAllocator allocator = new RecordingAllocator();
+        JsonWriter writer = new JsonWriter(allocator, 16);
+
+        // Nothing is allocated until something is written
+        assertSame(Unpooled.EMPTY_BUFFER, writer.take());
+        assertEquals(0, allocator.buffers.size());
+
+        writer.beginArray().value("first");
+        assertEquals(8, writer.size());
+        ByteBuf first = writer.take();
+        assertEquals(0, writer.size());
+        assertEquals(1, first.refCnt());
+        assertEquals("[\"first\"", toString(first));
+
+        // The writer no longer holds the taken buffer, and continues in a new one
+        writer.value("second").endArray();
+        assertEquals(2, allocator.buffers.size());
+        assertEquals(1, first.refCnt());
+        ByteBuf second = writer.take();
+        assertSame(allocator.buffers.get(1), second);
+        assertEquals(",\"second\"]", toString(second));
+
+        writer.release();
+        assertEquals(1, first.refCnt());
+        assertEquals(1, second.refCnt());
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void testReleaseDiscardsBuffer() {
+        RecordingAllocator allocator = new RecordingAllocator();
+        JsonWriter writer = new JsonWriter(allocator, 16);
+
+        // Releasing a writer which holds nothing does nothing
+        writer.release();
+        assertEquals(0, allocator.buffers.size());
+
+        writer.value("discarded");
+        ByteBuf discarded = allocator.buffers.get(0);
+        writer.release();
+        assertEquals(0, discarded.refCnt());
+        assertEquals(0, writer.size());
+        writer.release();
+
+        writer.value("kept");
+        assertEquals(2, allocator.buffers.size());
+        ByteBuf kept = writer.take();
+        assertEquals("\"kept\"", toString(kept));
+        kept.release();
+        assertEquals(0, kept.refCnt());
+    }
+
+    @Test
+    public void testCopySince() {
+        RecordingAllocator allocator = new RecordingAllocator();
+        JsonWriter writer = new JsonWriter(allocator, 16);
+        writer.beginArray().value(1);
+        int size = writer.size();
+        writer.value(2).endArray();
+        assertEquals(",2]", new String(writer.copySince(size), StandardCharsets.UTF_8));
+        assertEquals(0, writer.copySince(writer.size()).length);
+
+        // Copying leaves the buffer with the writer
+        ByteBuf taken = writer.take();
+        assertSame(allocator.buffers.get(0), taken);
+        assertEquals("[1,2]", toString(taken));
+        taken.release();
+    }
+
+    private static void assertDoubleWritten(double value) {
+        assertEquals(
+                Double.toString(value),
+                write(w -> w.value(value)),
+                () -> "bits " + Long.toHexString(Double.doubleToRawLongBits(value)));
+    }
+
+    private static String write(Writes writes) {
+        return new String(writeBytes(writes), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] writeBytes(Writes writes) {
+        RecordingAllocator allocator = new RecordingAllocator();
+        JsonWriter writer = new JsonWriter(allocator, 16);
+        writes.to(writer);
+        ByteBuf buffer = writer.take();
+        try {
+            byte[] bytes = new byte[buffer.readableBytes()];
+            buffer.getBytes(buffer.readerIndex(), bytes);
+            return bytes;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static String toString(ByteBuf buffer) {
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    private interface Writes {
+        void to(JsonWriter writer);
+    }
+
+    /** Allocates unpooled heap buffers, and keeps them to check their reference counts. */
+    private static final class RecordingAllocator extends UnpooledByteBufAllocator {
+        private final List<ByteBuf> buffers = new ArrayList<>();
+
+        RecordingAllocator() {
+            super(false);
+        }
+
+        @Override
+        public ByteBuf heapBuffer(int initialCapacity) {
+            ByteBuf buffer = super.heapBuffer(initialCapacity);
+            buffers.add(buffer);
+            return buffer;
+        }
+    }
+}
@@ -39,24 +39,58 @@ package io.cryostat.jfr.datasource.server;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
+import io.cryostat.jfr.datasource.arrow.ArrowStreamResponse;
+import io.cryostat.jfr.datasource.events.ParallelChunkLoader;
 import io.cryostat.jfr.datasource.sys.FileSystemService;
 
 import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.junit.mockito.InjectMock;
+import io.quarkus.test.junit.mockito.InjectSpy;
+import io.restassured.RestAssured;
+import io.restassured.config.DecoderConfig;
+import io.restassured.path.json.JsonPath;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
 import org.junit.jupiter.api.Order;
@@ -71,6 +105,7 @@ import org.mockito.stubbing.Answer;
 @QuarkusTest
 public class DatasourceTest {
     @InjectMock FileSystemService fsService;
+    @InjectSpy ParallelChunkLoader loader;
 
     @AfterEach
     public void afterEachDatasourceTest() {
@@ -85,6 +120,63 @@ public class DatasourceTest {
         directory.delete();
     }
 
+    /** Stubs the file system to keep uploaded files under their own names. */
+    private void mockUploads() {
+        Mockito.when(fsService.pathOf(Mockito.anyString()))
+                .thenAnswer(
+                        new Answer<Path>() {
+                            @Override
+                            public Path answer(InvocationOnMock invocation) throws IOException {
+                                String uploadedFileName = invocation.getArgument(0);
+                                return Path.of(uploadedFileName);
+                            }
+                        });
+        Mockito.when(fsService.exists(Mockito.any(Path.class))).thenReturn(false);
+        Mockito.when(fsService.move(Mockito.any(Path.class), Mockito.any(Path.class)))
+                .thenAnswer(
+                        new Answer<Path>() {
+                            @Override
+                            public Path answer(InvocationOnMock invocation) throws IOException {
+                                Path source = invocation.getArgument(0);
+                                Path dest = invocation.getArgument(1);
+                                return Files.move(source, dest);
+                            }
+                        });
+    }
+
+    /** Uploads and sets the test recording. */
+    private void loadRecording() {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+        loadRecording(jfrFile);
+    }
+
+    /** Uploads and sets the given recording. */
+    private void loadRecording(File jfrFile) {
+        mockUploads();
+        String expected =
+                "Uploaded: "
+                        + jfrFile.getName()
+                        + System.lineSeparator()
+                        + "Set: "
+                        + jfrFile.getName()
+                        + System.lineSeparator();
+        given().multiPart(jfrFile)
+                .when()
+                .post("/load")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain"));
+    }
+
+    /** The content of the given file under the test resources. */
+    private static String readResource(String name) throws IOException {
+        File file = new File("src/test/resources", name);
+        assertTrue(file.exists());
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
     @Test
     @Order(1)
     public void testGet() throws Exception {
@@ -485,6 +577,194 @@ public class DatasourceTest {
                 .header("content-type", is("text/plain"));
     }
 
+    @Test
+    public void testPostSetAsync() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+        // A name no other test loads, so the recording is parsed rather than taken from the cache
+        Path copyFile = Files.createTempDirectory("jfr-datasource").resolve("recording-async.jfr");
+        Files.copy(jfrFile.toPath(), copyFile);
+
+        mockUploads();
+
+        String expected = "Uploaded: recording-async.jfr" + System.lineSeparator();
+        given().multiPart(copyFile.toFile())
+                .when()
+                .post("/upload")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain"));
+
+        String body =
+                given().queryParam("async", "true")
+                        .body("recording-async.jfr")
+                        .when()
+                        .post("/set")
+                        .then()
+                        .statusCode(202)
+                        .header("content-type", is("text/plain"))
+                        .extract()
+                        .asString();
+        assertTrue(body.startsWith("Loading: "));
+        String id = body.substring("Loading: ".length()).trim();
+
+        String state = "";
+        for (int i = 0; i < 100 && !state.equals("COMPLETED"); i++) {
+            Thread.sleep(100);
+            state =
+                    given().queryParam("id", id)
+                            .when()
+                            .get("/load_status")
+                            .then()
+                            .statusCode(200)
+                            .body("id", is(id))
+                            .body("file", is("recording-async.jfr"))
+                            .header("content-type", is("application/json"))
+                            .extract()
+                            .path("state");
+        }
+        assertEquals("COMPLETED", state);
+
+        given().queryParam("id", id)
+                .when()
+                .get("/load_status")
+                .then()
+                .statusCode(200)
+                .body("cached", is(false))
+                .body("chunksDone", is(1))
+                .body("chunksTotal", is(1))
+                .body("bytesParsed", is((int) jfrFile.length()))
+                .body("etaMs", is(0));
+
+        expected = "recording-async.jfr" + System.lineSeparator();
+        given().when()
+                .get("/current")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain"));
+
+        given().queryParam("id", "unknown").when().get("/load_status").then().statusCode(404);
+
+        Files.deleteIfExists(copyFile);
+        Files.deleteIfExists(copyFile.getParent());
+    }
+
+    @Test
+    public void testPostSetCached() throws Exception {
+        loadRecording();
+
+        String expected = "Set: recording.jfr" + System.lineSeparator();
+        given().body("recording.jfr")
+                .when()
+                .post("/set")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain"));
+
+        given().when()
+                .get("/load_status")
+                .then()
+                .statusCode(200)
+                .body("file", is("recording.jfr"))
+                .body("state", is("COMPLETED"))
+                .body("cached", is(true));
+    }
+
+    @Test
+    public void testPostSetSuperseded() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+        Path directory = Files.createTempDirectory("jfr-datasource");
+        List<String> names =
+                List.of("recording-first.jfr", "recording-second.jfr", "recording-third.jfr");
+
+        mockUploads();
+        for (String name : names) {
+            Path copyFile = directory.resolve(name);
+            Files.copy(jfrFile.toPath(), copyFile);
+            given().multiPart(copyFile.toFile()).when().post("/upload").then().statusCode(200);
+        }
+
+        // The first load holds the only load thread until the others are queued behind it
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(
+                        invocation -> {
+                            started.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                            return invocation.callRealMethod();
+                        })
+                .when(loader)
+                .contentHash(Mockito.argThat(file -> file.getName().equals(names.get(0))));
+
+        List<String> ids = new ArrayList<>();
+        for (String name : names.subList(0, 2)) {
+            String body =
+                    given().queryParam("async", "true")
+                            .body(name)
+                            .when()
+                            .post("/set")
+                            .then()
+                            .statusCode(202)
+                            .extract()
+                            .asString();
+            ids.add(body.substring("Loading: ".length()).trim());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+        }
+
+        // The third load pushes the cancelled second one out of the queue, and must still run
+        CompletableFuture<String> set =
+                CompletableFuture.supplyAsync(
+                        () ->
+                                given().body(names.get(2))
+                                        .when()
+                                        .post("/set")
+                                        .then()
+                                        .statusCode(200)
+                                        .extract()
+                                        .asString());
+        try {
+            String file = "";
+            for (int i = 0; i < 100 && !file.equals(names.get(2)); i++) {
+                Thread.sleep(50);
+                file = given().when().get("/load_status").then().extract().path("file");
+            }
+            assertEquals(names.get(2), file);
+        } finally {
+            release.countDown();
+        }
+        assertEquals(
+                "Set: " + names.get(2) + System.lineSeparator(), set.get(30, TimeUnit.SECONDS));
+
+        given().when()
+                .get("/load_status")
+                .then()
+                .statusCode(200)
+                .body("file", is(names.get(2)))
+                .body("state", is("COMPLETED"));
+        for (String id : ids) {
+            given().queryParam("id", id)
+                    .when()
+                    .get("/load_status")
+                    .then()
+                    .statusCode(200)
+                    .body("state", is("CANCELLED"));
+        }
+        given().when()
+                .get("/current")
+                .then()
+                .statusCode(200)
+                .body(is(names.get(2) + System.lineSeparator()));
+
+        for (String name : names) {
+            Files.deleteIfExists(directory.resolve(name));
+        }
+        Files.deleteIfExists(directory);
+    }
+
     @Test
     public void testPostLoad() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -766,6 +1046,22 @@ public class DatasourceTest {
                 .header("content-type", is("application/json"));
     }
 
+    @Test
+    public void testPostSearchEventsWithPrefix() throws Exception {
+        loadRecording();
+
+        String input = readResource("searches/search.events.prefix.input.txt");
+        String expected = readResource("searches/search.events.prefix.output.txt");
+
+        given().body(input)
+                .when()
+                .post("/search")
+                .then()
+                .statusCode(200)
+                .body(is(expected.trim()))
+                .header("content-type", is("application/json"));
+    }
+
     @Test
     public void testPostSearchTarget() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -822,6 +1118,22 @@ public class DatasourceTest {
                 .header("content-type", is("application/json"));
     }
 
+    @Test
+    public void testPostSearchTargetWithPrefix() throws Exception {
+        loadRecording();
+
+        String input = readResource("searches/search.target.prefix.input.txt");
+        String expected = readResource("searches/search.target.prefix.output.txt");
+
+        given().body(input)
+                .when()
+                .post("/search")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+    }
+
     @Test
     public void testPostQueryTimeseries() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -878,6 +1190,268 @@ public class DatasourceTest {
                 .header("content-type", is("application/json"));
     }
 
+    @Test
+    public void testPostQueryCached() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.input.txt");
+        String expected = readResource("queries/query.timeseries.output.txt");
+
+        long hits = cacheHits();
+        for (int i = 0; i < 2; i++) {
+            given().body(input)
+                    .when()
+                    .post("/query")
+                    .then()
+                    .statusCode(200)
+                    .body(is(expected))
+                    .header("content-type", is("application/json"));
+            // The first query is evaluated, the second is answered from the cache
+            assertEquals(hits + i, cacheHits());
+        }
+
+        // Ranges which only differ outside of the recording share the cached response
+        String widened =
+                input.replace("18:37:59.240Z", "18:00:00.000Z")
+                        .replace("18:50:07.014Z", "19:00:00.000Z");
+        assertTrue(!widened.equals(input));
+        given().body(widened)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+        assertEquals(hits + 2, cacheHits());
+
+        // Setting another recording drops the cached responses. Both chunks of the concatenated
+        // recording hold the same events, so every datapoint is returned twice.
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        Path twiceFile = Files.createTempDirectory("jfr-datasource").resolve("recording-twice.jfr");
+        byte[] chunk = Files.readAllBytes(jfrFile.toPath());
+        Files.write(twiceFile, chunk);
+        Files.write(twiceFile, chunk, StandardOpenOption.APPEND);
+        mockUploads();
+        given().multiPart(twiceFile.toFile())
+                .when()
+                .post("/upload")
+                .then()
+                .statusCode(200)
+                .body(is("Uploaded: recording-twice.jfr" + System.lineSeparator()));
+        given().body("recording-twice.jfr")
+                .when()
+                .post("/set")
+                .then()
+                .statusCode(200)
+                .body(is("Set: recording-twice.jfr" + System.lineSeparator()));
+
+        int datapoints = JsonPath.from(expected).getList("[0].datapoints").size();
+        assertTrue(datapoints > 0);
+        String twice =
+                given().body(input)
+                        .when()
+                        .post("/query")
+                        .then()
+                        .statusCode(200)
+                        .body("[0].target", is("jdk.ObjectAllocationSample.weight"))
+                        .body("[0].datapoints.size()", is(2 * datapoints))
+                        .extract()
+                        .asString();
+        assertEquals(hits + 2, cacheHits());
+
+        // and the new response is cached in turn
+        given().body(input).when().post("/query").then().statusCode(200).body(is(twice));
+        assertEquals(hits + 3, cacheHits());
+    }
+
+    /** Number of queries answered from the result cache so far. */
+    private static long cacheHits() {
+        return given().when()
+                .get("/query_stats")
+                .then()
+                .statusCode(200)
+                .extract()
+                .jsonPath()
+                .getLong("cacheHits");
+    }
+
+    @Test
+    public void testPostQueryNotModified() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.input.txt");
+        String expected = readResource("queries/query.timeseries.output.txt");
+
+        String tag =
+                given().body(input)
+                        .when()
+                        .post("/query")
+                        .then()
+                        .statusCode(200)
+                        .body(is(expected))
+                        .extract()
+                        .header("etag");
+        assertTrue(tag.matches("W/\"[0-9a-f]+-[0-9a-f]{16}\""));
+
+        given().header("If-None-Match", tag)
+                .body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(304)
+                .header("etag", is(tag))
+                .body(is(""));
+
+        // Ranges which only differ outside of the recording have the same response
+        String widened =
+                input.replace("18:37:59.240Z", "18:00:00.000Z")
+                        .replace("18:50:07.014Z", "19:00:00.000Z");
+        given().header("If-None-Match", "\"other\", " + tag)
+                .body(widened)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(304);
+
+        String otherTarget = input.replace(".weight", ".objectClass");
+        given().header("If-None-Match", tag)
+                .body(otherTarget)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .header("etag", not(tag));
+
+        String searchTag =
+                given().body("{\"target\":\"*\"}")
+                        .when()
+                        .post("/search")
+                        .then()
+                        .statusCode(200)
+                        .extract()
+                        .header("etag");
+        assertTrue(!searchTag.equals(tag));
+        given().header("If-None-Match", searchTag)
+                .body("{\"target\":\"*\"}")
+                .when()
+                .post("/search")
+                .then()
+                .statusCode(304);
+    }
+
+    @Test
+    public void testPostQueryTimeseriesDownsampled() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.downsampled.input.txt");
+        String expected = readResource("queries/query.timeseries.downsampled.output.txt");
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+    }
+
+    @Test
+    public void testPostQueryTimeseriesAggregated() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.aggregated.input.txt");
+        String expected = readResource("queries/query.timeseries.aggregated.output.txt");
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+
+        // Reserved parameters can also be given with a prefix, which keeps them apart from fields
+        given().body(input.replace("?agg=", "?$agg=").replace("&interval=", "&$interval="))
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected));
+
+        // Intervals whose nanoseconds overflow a long are rejected
+        given().body(input.replace("&interval=1m", "&interval=300000d"))
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is("[]"));
+    }
+
+    @Test
+    public void testPostQueryDataFrames() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.frame.input.txt");
+        String expected = readResource("queries/query.frame.output.txt");
+
+        given().body(input)
+                .accept(ResponseFormat.DATA_FRAME_MEDIA_TYPE)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is(ResponseFormat.DATA_FRAME_MEDIA_TYPE));
+    }
+
+    @Test
+    public void testPostQueryTimeseriesRollup() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.rollup.input.txt");
+        String expected = readResource("queries/query.timeseries.rollup.output.txt");
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+    }
+
+    @Test
+    public void testPostQueryTimeseriesPercentiles() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.percentiles.input.txt");
+        String expected = readResource("queries/query.timeseries.percentiles.output.txt");
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+    }
+
+    @Test
+    public void testPostQueryTimeseriesNarrowWindow() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.window.input.txt");
+        String expected = readResource("queries/query.timeseries.window.output.txt");
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+    }
+
     @Test
     public void testPostQueryTimeseriesWithParams() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -934,6 +1508,22 @@ public class DatasourceTest {
                 .header("content-type", is("application/json"));
     }
 
+    @Test
+    public void testPostQueryTimeseriesGrouped() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.grouped.input.txt");
+        String expected = readResource("queries/query.timeseries.grouped.output.txt");
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+    }
+
     @Test
     public void testPostQueryTable() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -990,6 +1580,80 @@ public class DatasourceTest {
                 .header("content-type", is("application/json"));
     }
 
+    @Test
+    public void testPostQueryTableChunked() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.table.chunked.input.txt");
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body("[0].type", is("table"))
+                .body("[0].rows.size()", is(31151))
+                .header("transfer-encoding", is("chunked"))
+                .header("content-type", is("application/json"));
+    }
+
+    @Test
+    public void testPostQueryCompressed() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.table.chunked.input.txt");
+
+        byte[] compressed =
+                given().config(
+                                RestAssured.config()
+                                        .decoderConfig(
+                                                DecoderConfig.decoderConfig()
+                                                        .noContentDecoders()))
+                        .header("Accept-Encoding", "gzip")
+                        .body(input)
+                        .when()
+                        .post("/query")
+                        .then()
+                        .statusCode(200)
+                        .header("content-encoding", is("gzip"))
+                        .header("vary", is("accept-encoding"))
+                        .header("transfer-encoding", is("chunked"))
+                        .extract()
+                        .asByteArray();
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            String body = new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(body.startsWith("[{\"type\":\"table\""));
+            assertTrue(body.endsWith("]}]"));
+        }
+
+        given().config(
+                        RestAssured.config()
+                                .decoderConfig(DecoderConfig.decoderConfig().noContentDecoders()))
+                .header("Accept-Encoding", "identity")
+                .body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .header("content-encoding", nullValue())
+                .body("[0].rows.size()", is(31151));
+    }
+
+    @Test
+    public void testPostQueryTableOverlapping() throws Exception {
+        loadRecording();
+
+        String input = readResource("queries/query.table.overlapping.input.txt");
+        String expected = readResource("queries/query.table.overlapping.output.txt");
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json"));
+    }
+
     @Test
     public void testPostQueryRecordingDuration() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -1105,6 +1769,316 @@ public class DatasourceTest {
                 .header("content-type", is("application/json"));
     }
 
+    @Test
+    public void testGetMetadata() throws Exception {
+        loadRecording();
+
+        given().when()
+                .get("/metadata")
+                .then()
+                .statusCode(200)
+                .header("content-type", is("application/json"))
+                .body("file", is("recording.jfr"))
+                .body("startTime", is(1663785541195L))
+                .body("duration", is(619867))
+                .body("types.'jdk.ThreadSleep'.count", is(120))
+                .body("types.'jdk.ThreadSleep'.fields.duration.max", is(4992.399495333333f));
+
+        given().when().delete("/delete_all").then().statusCode(200);
+        given().when().get("/metadata").then().statusCode(404);
+    }
+
+    @Test
+    public void testGetExport() throws Exception {
+        loadRecording();
+
+        ArrowTable export =
+                readArrowStream(
+                        given().queryParam("type", "jdk.JavaMonitorWait")
+                                .queryParam("fields", "startTime,duration,monitorClass")
+                                .when()
+                                .get("/export")
+                                .then()
+                                .statusCode(200)
+                                .header("content-type", is(ArrowStreamResponse.MEDIA_TYPE))
+                                .extract()
+                                .asByteArray());
+        assertEquals(
+                List.of("startTime", "duration", "monitorClass"),
+                export.fields.stream().map(Field::getName).collect(Collectors.toList()));
+        assertEquals(
+                new ArrowType.Timestamp(org.apache.arrow.vector.types.TimeUnit.NANOSECOND, "UTC"),
+                export.fields.get(0).getType());
+        assertEquals(
+                new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE),
+                export.fields.get(1).getType());
+        assertEquals(ArrowType.Utf8.INSTANCE, export.fields.get(2).getType());
+        // Batches of 4096 rows, then the remainder
+        assertEquals(
+                List.of(4096, 4096, 4096, 4096, 4096, 4096, 4096, 2479), export.batchRowCounts);
+        assertEquals(31151, export.getRowCount());
+        assertExportedRow(
+                export, 0, 1663785541194700L, 20857.465451, "java.lang.ref.ReferenceQueue$Lock");
+        assertExportedRow(export, 4095, 1663785640714292L, 20.036184, "java.lang.Object");
+        assertExportedRow(export, 4096, 1663785640734376L, 20.056744, "java.lang.Object");
+        assertExportedRow(export, 31150, 1663786161034010L, 25.497146, "java.lang.Object");
+        assertStartTimesWithin(export, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        ArrowTable range =
+                readArrowStream(
+                        given().queryParam("type", "jdk.JavaMonitorWait")
+                                .queryParam("fields", "startTime,duration,monitorClass")
+                                .queryParam("from", "2022-09-21T18:42:00Z")
+                                .queryParam("to", "2022-09-21T18:45:00Z")
+                                .when()
+                                .get("/export")
+                                .then()
+                                .statusCode(200)
+                                .extract()
+                                .asByteArray());
+        assertEquals(export.fields, range.fields);
+        assertEquals(List.of(4096, 4096, 1170), range.batchRowCounts);
+        assertEquals(9362, range.getRowCount());
+        assertExportedRow(range, 0, 1663785720014503L, 20.02572, "java.lang.Object");
+        assertExportedRow(range, 9361, 1663785899983578L, 20.039401, "java.lang.Object");
+        assertStartTimesWithin(range, 1663785720000000000L, 1663785900000000000L);
+
+        given().queryParam("type", "jdk.ThreadSleep")
+                .queryParam("fields", "notAField")
+                .when()
+                .get("/export")
+                .then()
+                .statusCode(400);
+        given().queryParam("type", "jdk.NotAType").when().get("/export").then().statusCode(404);
+    }
+
+    /** The schema and the values of the record batches of an Arrow stream. */
+    private static final class ArrowTable {
+        private final List<Field> fields;
+        private final List<Integer> batchRowCounts = new ArrayList<>();
+        // The values of each field, over all batches
+        private final List<List<Object>> columns = new ArrayList<>();
+
+        private ArrowTable(List<Field> fields) {
+            this.fields = fields;
+            for (int i = 0; i < fields.size(); i++) {
+                columns.add(new ArrayList<>());
+            }
+        }
+
+        private int getRowCount() {
+            return columns.get(0).size();
+        }
+    }
+
+    private static ArrowTable readArrowStream(byte[] body) throws IOException {
+        try (BufferAllocator allocator = new RootAllocator();
+                ArrowStreamReader reader =
+                        new ArrowStreamReader(new ByteArrayInputStream(body), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            ArrowTable table = new ArrowTable(root.getSchema().getFields());
+            while (reader.loadNextBatch()) {
+                table.batchRowCounts.add(root.getRowCount());
+                for (int i = 0; i < table.fields.size(); i++) {
+                    FieldVector vector = root.getVector(i);
+                    for (int row = 0; row < root.getRowCount(); row++) {
+                        table.columns.get(i).add(vector.getObject(row));
+                    }
+                }
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Checks an exported row of jdk.JavaMonitorWait. Times are compared to the microsecond, as
+     * converting ticks may round nanoseconds differently.
+     */
+    private static void assertExportedRow(
+            ArrowTable table,
+            int row,
+            long startMicros,
+            double durationMillis,
+            String monitorClass) {
+        assertEquals(startMicros, (Long) table.columns.get(0).get(row) / 1000);
+        assertEquals(durationMillis, (Double) table.columns.get(1).get(row), 1e-3);
+        assertEquals(monitorClass, table.columns.get(2).get(row).toString());
+    }
+
+    /** Checks that rows are in order of their start times, and that these are within the range. */
+    private static void assertStartTimesWithin(ArrowTable table, long fromNanos, long toNanos) {
+        long previous = fromNanos;
+        for (Object value : table.columns.get(0)) {
+            long startTime = (Long) value;
+            assertTrue(startTime >= previous);
+            previous = startTime;
+        }
+        assertTrue(previous <= toNanos);
+    }
+
+    @Test
+    public void testPostQueryMultiChunkRecording() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        // Concatenated recordings are valid multi-chunk recordings
+        Path multiChunkFile = Files.createTempDirectory("jfr-datasource").resolve("multichunk.jfr");
+        byte[] chunk = Files.readAllBytes(jfrFile.toPath());
+        Files.write(multiChunkFile, chunk);
+        Files.write(multiChunkFile, chunk, StandardOpenOption.APPEND);
+
+        loadRecording(multiChunkFile.toFile());
+
+        String input = readResource("queries/query.recording_duration.input.txt");
+        String output = readResource("queries/query.recording_duration.output.txt");
+
+        given().body(input)
+                .when()
+                .post("query")
+                .then()
+                .statusCode(200)
+                .body(is(output))
+                .header("content-type", is("application/json"));
+
+        // Both chunks hold the same events, so every event is returned twice
+        given().body(readResource("queries/query.table.chunked.input.txt"))
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body("[0].rows.size()", is(2 * 31151));
+
+        // but each type and field is only listed once
+        List<String> expectedTargets =
+                JsonPath.from(readResource("searches/search.events.output.txt"))
+                        .getList("$", String.class);
+        List<String> targets =
+                given().body(readResource("searches/search.events.input.txt"))
+                        .when()
+                        .post("/search")
+                        .then()
+                        .statusCode(200)
+                        .extract()
+                        .jsonPath()
+                        .getList("$", String.class);
+        assertEquals(new HashSet<>(targets).size(), targets.size());
+        assertEquals(new HashSet<>(expectedTargets), new HashSet<>(targets));
+
+        Files.deleteIfExists(multiChunkFile);
+        Files.deleteIfExists(multiChunkFile.getParent());
+    }
+
+    @Test
+    public void testConcurrentQueryAndSet() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        Path copyFile = Files.createTempDirectory("jfr-datasource").resolve("recording-copy.jfr");
+        Files.copy(jfrFile.toPath(), copyFile);
+
+        mockUploads();
+        given().multiPart(copyFile.toFile()).when().post("/upload").then().statusCode(200);
+        loadRecording();
+
+        String input = readResource("queries/query.timeseries.input.txt");
+        String expected = readResource("queries/query.timeseries.output.txt");
+
+        // Both files have the same content, so every query must see the full result no matter
+        // which of them is set at the time
+        List<String> files = List.of("recording.jfr", "recording-copy.jfr");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                if (i % 5 == 0) {
+                    String file = files.get((i / 5) % files.size());
+                    futures.add(
+                            executor.submit(
+                                    () -> {
+                                        int status =
+                                                given().body(file)
+                                                        .when()
+                                                        .post("/set")
+                                                        .then()
+                                                        .extract()
+                                                        .statusCode();
+                                        // 409 if superseded by a concurrent /set
+                                        assertTrue(status == 200 || status == 409);
+                                    }));
+                } else {
+                    futures.add(
+                            executor.submit(
+                                    () -> {
+                                        given().body(input)
+                                                .when()
+                                                .post("/query")
+                                                .then()
+                                                .statusCode(200)
+                                                .body(is(expected));
+                                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        String current = given().when().get("/current").then().extract().asString().trim();
+        assertTrue(files.contains(current));
+
+        Files.deleteIfExists(copyFile);
+        Files.deleteIfExists(copyFile.getParent());
+    }
+
+    @Test
+    public void testQueryClosedMidStream() throws Exception {
+        loadRecording();
+
+        byte[] input =
+                readResource("queries/query.table.chunked.input.txt")
+                        .getBytes(StandardCharsets.UTF_8);
+
+        // The client stops reading after the status line, so the response is left waiting for
+        // the connection to drain when it is closed
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(1024);
+            socket.connect(new InetSocketAddress("localhost", RestAssured.port));
+            OutputStream out = socket.getOutputStream();
+            String head =
+                    "POST /query HTTP/1.1\r\n"
+                            + "Host: localhost\r\n"
+                            + "Content-Type: application/json\r\n"
+                            + "Content-Length: "
+                            + input.length
+                            + "\r\n\r\n";
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            out.write(input);
+            out.flush();
+            BufferedReader in =
+                    new BufferedReader(
+                            new InputStreamReader(
+                                    socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int inFlight;
+        do {
+            Thread.sleep(50);
+            inFlight =
+                    given().when()
+                            .get("/query_stats")
+                            .then()
+                            .statusCode(200)
+                            .extract()
+                            .jsonPath()
+                            .getInt("inFlight");
+        } while (inFlight > 0 && System.nanoTime() < deadline);
+        assertEquals(0, inFlight);
+    }
+
     @Test
     public void testDeleteFileExist() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -1581,6 +2555,10 @@ public class DatasourceTest {
         given().multiPart(jfrFile).when().get("/load").then().statusCode(405);
         given().when().post("/list").then().statusCode(405);
         given().when().post("/current").then().statusCode(405);
+        given().when().post("/load_status").then().statusCode(405);
+        given().when().post("/metadata").then().statusCode(405);
+        given().when().post("/export").then().statusCode(405);
+        given().when().post("/query_stats").then().statusCode(405);
         given().when().post("/delete_all").then().statusCode(405);
         given().body("recording.jfr").when().post("/delete").then().statusCode(405);
     }
@@ -0,0 +1,220 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mixed upload and query traffic against a running test instance. Run with
+ *
+ * <pre>
+ * mvn test -Djfr-datasource.load-test=true -Dtest='*MixedLoadTest'
+ * </pre>
+ *
+ * which compares the worker pool with virtual threads, and appends throughput and latency
+ * percentiles of both to {@code target/load-test-results.txt}. The duration in seconds and the
+ * number of concurrent clients can be set through {@code jfr-datasource.load-test.seconds} and
+ * {@code jfr-datasource.load-test.clients}.
+ */
+public class MixedLoad {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MixedLoad.class);
+
+    static final String ENABLED_PROPERTY = "jfr-datasource.load-test";
+
+    // One in this many requests is an upload, the others are queries
+    private static final int UPLOAD_RATIO = 4;
+
+    /**
+     * Shrinks the worker pool so that it saturates under the load, and disables the query cache and
+     * query coalescing so that every query scans the recording.
+     */
+    public static class Profile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "quarkus.thread-pool.max-threads", "8",
+                    "jfr-datasource.query-cache.max-size", "0",
+                    "jfr-datasource.query-coalescing.enabled", "false");
+        }
+    }
+
+    public static class VirtualThreadsProfile extends Profile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            Map<String, String> overrides = new HashMap<>(super.getConfigOverrides());
+            overrides.put("jfr-datasource.virtual-threads.enabled", "true");
+            return overrides;
+        }
+    }
+
+    private MixedLoad() {}
+
+    static void run(String mode) throws Exception {
+        int seconds = Integer.getInteger("jfr-datasource.load-test.seconds", 20);
+        int clients = Integer.getInteger("jfr-datasource.load-test.clients", 32);
+
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+        byte[] recording = Files.readAllBytes(jfrFile.toPath());
+        given().multiPart(jfrFile).when().post("/load").then().statusCode(200);
+
+        File inputFile = new File("src/test/resources/queries/query.timeseries.input.txt");
+        String input = new String(Files.readAllBytes(inputFile.toPath()), StandardCharsets.UTF_8);
+
+        ConcurrentLinkedQueue<Long> uploads = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Long> queries = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Integer> failures = new ConcurrentLinkedQueue<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                                    while (System.nanoTime() < deadline) {
+                                        long start = System.nanoTime();
+                                        int status;
+                                        if (random.nextInt(UPLOAD_RATIO) == 0) {
+                                            status =
+                                                    given().multiPart(
+                                                                    "file",
+                                                                    UUID.randomUUID() + ".jfr",
+                                                                    recording)
+                                                            .when()
+                                                            .post("/upload")
+                                                            .then()
+                                                            .extract()
+                                                            .statusCode();
+                                            uploads.add(System.nanoTime() - start);
+                                        } else {
+                                            // Varies the query so that the responses differ
+                                            String query =
+                                                    input.replace(
+                                                            "\"maxDataPoints\":910",
+                                                            "\"maxDataPoints\":"
+                                                                    + random.nextInt(100, 1000));
+                                            status =
+                                                    given().body(query)
+                                                            .when()
+                                                            .post("/query")
+                                                            .then()
+                                                            .extract()
+                                                            .statusCode();
+                                            queries.add(System.nanoTime() - start);
+                                        }
+                                        if (status != 200) {
+                                            failures.add(status);
+                                        }
+                                    }
+                                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            given().when().delete("/delete_all");
+        }
+
+        String report =
+                String.format(
+                        "%s on Java %s, %d clients for %ds%n%s%n%s%n",
+                        mode,
+                        Runtime.version(),
+                        clients,
+                        seconds,
+                        summarize("upload", uploads, seconds),
+                        summarize("query", queries, seconds));
+        LOGGER.info(report);
+        Path results = Path.of("target", "load-test-results.txt");
+        Files.createDirectories(results.getParent());
+        Files.writeString(results, report, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        assertEquals(List.of(), new ArrayList<>(failures));
+    }
+
+    private static String summarize(
+            String kind, ConcurrentLinkedQueue<Long> latencies, int seconds) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return String.format(
+                "  %-6s %7.1f req/s  p50 %7.1fms  p95 %7.1fms  p99 %7.1fms  max %7.1fms",
+                kind,
+                (double) sorted.size() / seconds,
+                percentile(sorted, 0.50),
+                percentile(sorted, 0.95),
+                percentile(sorted, 0.99),
+                percentile(sorted, 1.0));
+    }
+
+    private static double percentile(List<Long> sorted, double quantile) {
+        if (sorted.isEmpty()) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0)) / 1e6;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.jfr.datasource.events.RecordingService;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.junit.mockito.InjectSpy;
+import io.restassured.path.json.JsonPath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+@QuarkusTest
+@TestProfile(QueryCoalescingTest.UncachedProfile.class)
+public class QueryCoalescingTest {
+
+    private static final int QUERIES = 16;
+
+    /**
+     * Disables the query cache, so that identical queries can only share an evaluation, and runs
+     * every query of the test at once.
+     */
+    public static class UncachedProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "jfr-datasource.query-cache.max-size", "0",
+                    "jfr-datasource.query.threads", String.valueOf(2 * QUERIES));
+        }
+    }
+
+    @InjectSpy RecordingService recordingService;
+
+    @AfterEach
+    public void afterEachQueryCoalescingTest() {
+        given().when().delete("/delete_all").then().statusCode(200);
+    }
+
+    @Test
+    public void testConcurrentIdenticalQueries() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+        given().multiPart(jfrFile).when().post("/load").then().statusCode(200);
+
+        File inputFile = new File("src/test/resources/queries/query.table.chunked.input.txt");
+        assertTrue(inputFile.exists());
+        String input = new String(Files.readAllBytes(inputFile.toPath()));
+
+        JsonPath before = given().when().get("/query_stats").then().extract().jsonPath();
+
+        // The first evaluation is held until every query has arrived
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(
+                        invocation -> {
+                            release.await(10, TimeUnit.SECONDS);
+                            return invocation.callRealMethod();
+                        })
+                .when(recordingService)
+                .getTable(Mockito.any(), Mockito.any(), Mockito.any());
+
+        ExecutorService executor = Executors.newFixedThreadPool(QUERIES);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < QUERIES; i++) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    given().body(input)
+                                            .when()
+                                            .post("/query")
+                                            .then()
+                                            .statusCode(200)
+                                            .body("[0].rows.size()", is(31151));
+                                }));
+            }
+            try {
+                long queries = before.getLong("queries");
+                for (int i = 0; i < 100 && queries < before.getLong("queries") + QUERIES; i++) {
+                    Thread.sleep(50);
+                    queries =
+                            given().when()
+                                    .get("/query_stats")
+                                    .then()
+                                    .extract()
+                                    .jsonPath()
+                                    .getLong("queries");
+                }
+                assertEquals(before.getLong("queries") + QUERIES, queries);
+                // Queries are counted just before they join the flight, so the last ones may not
+                // have boarded yet
+                Thread.sleep(100);
+            } finally {
+                release.countDown();
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every query shared the one evaluation of the first
+        Mockito.verify(recordingService, Mockito.times(1))
+                .getTable(Mockito.any(), Mockito.any(), Mockito.any());
+        JsonPath stats =
+                given().when().get("/query_stats").then().statusCode(200).extract().jsonPath();
+        assertEquals(before.getLong("coalesced") + QUERIES - 1, stats.getLong("coalesced"));
+        assertEquals(before.getLong("cacheHits"), stats.getLong("cacheHits"));
+        assertTrue(stats.getDouble("coalescingRatio") > 0);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int inFlight = stats.getInt("inFlight");
+        while (inFlight > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            inFlight =
+                    given().when()
+                            .get("/query_stats")
+                            .then()
+                            .extract()
+                            .jsonPath()
+                            .getInt("inFlight");
+        }
+        assertEquals(0, inFlight);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.jfr.datasource.events.RecordingService;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.junit.mockito.InjectSpy;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+@QuarkusTest
+@TestProfile(QueryExecutorTest.SinglePermitProfile.class)
+public class QueryExecutorTest {
+
+    /** Admits a single query route request at a time. */
+    public static class SinglePermitProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "jfr-datasource.query.threads", "1",
+                    "jfr-datasource.query.queue-depth", "0");
+        }
+    }
+
+    @InjectSpy RecordingService recordingService;
+
+    @Test
+    public void testExportRejectedWhenSaturated() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(
+                        invocation -> {
+                            entered.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                            return invocation.callRealMethod();
+                        })
+                .when(recordingService)
+                .annotations();
+
+        // Holds the only permit until released
+        CompletableFuture<Integer> blocked =
+                CompletableFuture.supplyAsync(
+                        () -> given().when().post("/annotations").then().extract().statusCode());
+        try {
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            given().queryParam("type", "jdk.ThreadSleep")
+                    .when()
+                    .get("/export")
+                    .then()
+                    .statusCode(429)
+                    .header("retry-after", is("1"));
+        } finally {
+            release.countDown();
+        }
+        assertEquals(200, blocked.get(10, TimeUnit.SECONDS));
+
+        // The permit is returned once the response has ended, and no recording is loaded
+        int status = 429;
+        for (int i = 0; i < 50 && status == 429; i++) {
+            status =
+                    given().queryParam("type", "jdk.ThreadSleep")
+                            .when()
+                            .get("/export")
+                            .then()
+                            .extract()
+                            .statusCode();
+            if (status == 429) {
+                Thread.sleep(100);
+            }
+        }
+        assertEquals(404, status);
+    }
+}